@@ -1,24 +1,164 @@
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Scanner;
 
 public class ApproximateTSPDriver {
 
+	/**
+	 * Untimed and timed MST runs per thread count of -threads
+	 */
+	private static final int SPEEDUP_WARMUP = 2;
+	private static final int SPEEDUP_RUNS = 5;
+
+	/**
+	 * Optional arguments:
+	 * 
+	 * <pre>
+	 * -engine name  how the cycle is built from the MST: mst (preorder walk,
+	 *               the default), christofides (MST plus odd vertex matching)
+	 *               or both, which prints both with their run times. curve
+	 *               skips the MST and follows a space filling curve, the
+	 *               fastest and longest cycle
+	 * -curve name   hilbert or morton: sort the points along that curve
+	 *               before solving, see CurveOrder. Cycles are still printed
+	 *               with the record numbers of the input
+	 * -improve ms   run 2-opt / Or-opt on the cycle for at most ms milliseconds
+	 *               (0 = until no move helps)
+	 * -threads n    threads for the parallel stages (building the graph and
+	 *               the MST). When the MST runs on threads, also times it on
+	 *               one thread and on n threads and prints the speedup
+	 * -metrics      print the time, allocation and counters of every stage as
+	 *               JSON at the end
+	 * -graph mode   implicit (the default), matrix or knn: how the edges are
+	 *               kept, see GraphMode
+	 * -k n          neighbours per point of the knn graph
+	 * -storage s    double (the default), float or off_heap: how the matrix
+	 *               graph keeps its weights, see MatrixStorage
+	 * -where expr   solve the records matching the predicate instead of
+	 *               asking for a range, e.g. offense=ROBBERY,tract=160600,
+	 *               date=3/1/1990..3/31/1990 (see RowPredicate). The index is
+	 *               built on the first use and kept next to the data file
+	 *               (name plus ".attr") until the file changes
+	 * -window days  feed the records in date order through a window of the
+	 *               last days days, updating the tour as records come and go
+	 *               (see SlidingWindowTour), and print the tour of every day
+	 *               as record numbers. No range is asked for
+	 * -cache dir    keep the cycles in the directory and answer a repeated
+	 *               request (same file, range and options) from there
+	 *               without solving it, see TourCache
+	 * </pre>
+	 * 
+	 * @param args
+	 */
 	public static void main(String[] args) {
 
 		int startPos = 0, endPos = 0;
+		long improveMillis = -1;
+		String engine = "mst";
+		boolean printMetrics = false;
+		int threads = 0;
+		TourCache cache = null;
+		String where = null;
+		int windowDays = 0;
 		PrimMST primObj = new PrimMST();
-		List<Integer> cyclePath = null;
+		int[] cyclePath = null;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-improve") && i + 1 < args.length) {
+				improveMillis = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-engine") && i + 1 < args.length) {
+				engine = args[++i];
+			} else if (args[i].equals("-threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-graph") && i + 1 < args.length) {
+				primObj.setGraphMode(GraphMode.valueOf(args[++i].toUpperCase()));
+			} else if (args[i].equals("-curve") && i + 1 < args.length) {
+				primObj.setCurveOrder(CurveOrder.valueOf(args[++i].toUpperCase()));
+			} else if (args[i].equals("-storage") && i + 1 < args.length) {
+				primObj.setMatrixStorage(MatrixStorage.valueOf(args[++i]
+						.toUpperCase()));
+			} else if (args[i].equals("-k") && i + 1 < args.length) {
+				primObj.setKnnNeighbours(Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-where") && i + 1 < args.length) {
+				where = args[++i];
+			} else if (args[i].equals("-window") && i + 1 < args.length) {
+				windowDays = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-cache") && i + 1 < args.length) {
+				cache = new TourCache(64L << 20, new File(args[++i]));
+			} else if (args[i].equals("-metrics")) {
+				printMetrics = true;
+			} else {
+				System.err.println("Unknown argument: " + args[i]);
+			}
+		}
+
+		if (threads > 0) {
+			primObj.setThreads(threads);
+		}
+
+		if (windowDays > 0) {
+			try {
+				SlidingWindowTour.replay(primObj.getDataFile(), windowDays, 0,
+						true);
+			} catch (IOException e) {
+				System.err.println("Can not replay " + primObj.getDataFile()
+						+ ": " + e.getMessage());
+			}
+			return;
+		}
 
 		try (Scanner scanObj = new Scanner(System.in);) {
 
-			System.out.print("Enter start index: ");
-			startPos = scanObj.nextInt();
+			if (where == null) {
+				System.out.print("Enter start index: ");
+				startPos = scanObj.nextInt();
 
-			System.out.print("Enter end index: ");
-			endPos = scanObj.nextInt();
+				System.out.print("Enter end index: ");
+				endPos = scanObj.nextInt();
+			}
+
+			// Both engines print two cycles, only single ones are cached.
+			// The cache is keyed by range, so -where is not cached
+			String cacheKey = null;
+			if (cache != null && !engine.equals("both") && where == null) {
+				try {
+					cacheKey = cacheKey(primObj, startPos, endPos, engine,
+							improveMillis);
+				} catch (IOException e) {
+					System.err.println("Can not index "
+							+ primObj.getDataFile() + ": " + e.getMessage());
+					return;
+				}
+				TourCache.Entry entry = cache.get(cacheKey);
+				if (entry != null) {
+					printCached(primObj, startPos, endPos, entry);
+					return;
+				}
+			}
 
 			// Load graph
-			primObj.loadGraph(startPos, endPos);
+			if (where != null) {
+				try {
+					primObj.loadGraph(
+							AttributeIndex.open(primObj.getDataFile()),
+							RowPredicate.parse(where));
+				} catch (IOException e) {
+					System.err.println("Can not index "
+							+ primObj.getDataFile() + ": " + e.getMessage());
+					return;
+				} catch (IllegalArgumentException e) {
+					System.err.println("Bad -where " + where + ": "
+							+ e.getMessage());
+					return;
+				}
+				if (primObj.getSize() == 0) {
+					System.out.println("No records match " + where);
+					return;
+				}
+			} else {
+				primObj.loadGraph(startPos, endPos);
+			}
 
 			// Print the records asked by the user
 			System.out.println("Crime records Processed: \n");
@@ -27,18 +167,210 @@ public class ApproximateTSPDriver {
 				System.out.println(primObj.getFileData()[i]);
 			}
 
-			primObj.getMST(0);
-			System.out.print("\nHamiltonian Cycle (not necessarily optimum): ");
+			// The curve tour builds no MST, so there is nothing to time
+			if (threads > 0 && !engine.equals("curve")) {
+				if (primObj.isMSTParallel()) {
+					reportSpeedup(primObj, threads);
+				} else {
+					System.out.println("\nMST engine: "
+							+ primObj.chooseEngine()
+							+ ", sequential (only the EUCLIDEAN engine on "
+							+ EuclideanMST.PARALLEL_THRESHOLD
+							+ " or more points uses threads)");
+				}
+			}
+
+			// Start at the first record, whatever vertex the curve order
+			// made of it
+			int root = 0;
+			while (primObj.getOriginalIndex(root) != 0) {
+				root++;
+			}
+
+			long time = System.nanoTime();
+			long mstTime = 0;
+			if (!engine.equals("curve")) {
+				primObj.getMST(root);
+				mstTime = System.nanoTime() - time;
+			}
+
+			if (engine.equals("curve")) {
+				System.out.print("\nCurve Cycle (not necessarily optimum): ");
+
+				time = System.nanoTime();
+				cyclePath = primObj.getCurveTour(root);
+				time = System.nanoTime() - time;
 
-			cyclePath = primObj.getHamiltonianCycle(0);
+				System.out.println(Arrays.toString(primObj
+						.toOriginalOrder(cyclePath)));
+				System.out.println("Length of the Cycle: "
+						+ primObj.getLengthFromPath(cyclePath) + " miles");
+				System.out.println("Time: " + time / 1000000.0 + " ms");
+			}
+
+			if (engine.equals("mst") || engine.equals("both")) {
+				System.out.print("\nHamiltonian Cycle (not necessarily optimum): ");
+
+				time = System.nanoTime();
+				cyclePath = primObj.getHamiltonianCycle(root);
+				time = System.nanoTime() - time + mstTime;
+
+				System.out.println(Arrays.toString(primObj
+						.toOriginalOrder(cyclePath)));
+
+				System.out.println("Length of the Cycle: "
+						+ primObj.getLengthFromPath(cyclePath) + " miles");
+				if (engine.equals("both")) {
+					System.out.println("Time (MST + walk): " + time / 1000000.0
+							+ " ms");
+				}
+			}
 
-			System.out.println(cyclePath.toString());
+			if (engine.equals("christofides") || engine.equals("both")) {
+				System.out.print("\nChristofides Cycle (not necessarily optimum): ");
 
-			System.out.println("Length of the Cycle: "
-					+ primObj.getLengthFromPath(cyclePath) + " miles");
+				time = System.nanoTime();
+				cyclePath = primObj.getChristofidesCycle(root);
+				time = System.nanoTime() - time + mstTime;
+
+				System.out.println(Arrays.toString(primObj
+						.toOriginalOrder(cyclePath)));
+
+				System.out.println("Length of the Cycle: "
+						+ primObj.getLengthFromPath(cyclePath) + " miles");
+				if (engine.equals("both")) {
+					System.out.println("Time (MST + matching + circuit): "
+							+ time / 1000000.0 + " ms");
+				}
+			}
+
+			int[] result = cyclePath;
+			if (improveMillis >= 0) {
+				int[] improved = primObj.improveTour(cyclePath, improveMillis);
+				result = improved;
+
+				System.out.print("\nImproved Cycle (2-opt / Or-opt): ");
+				System.out.println(Arrays.toString(primObj
+						.toOriginalOrder(improved)));
+				System.out.println("Length before improvement: "
+						+ primObj.getLengthFromPath(cyclePath) + " miles");
+				System.out.println("Length after improvement: "
+						+ primObj.getLengthFromPath(improved) + " miles");
+			}
+
+			// Cached with the record numbers of the input, as printed
+			if (cacheKey != null && result != null) {
+				int[] tree = engine.equals("curve") ? new int[0] : primObj
+						.getParent();
+				int[] parent = new int[tree.length];
+				for (int v = 0; v < tree.length; v++) {
+					parent[primObj.getOriginalIndex(v)] = primObj
+							.getOriginalIndex(tree[v]);
+				}
+				cache.put(cacheKey, new TourCache.Entry(parent, primObj
+						.toOriginalOrder(result), primObj
+						.getMilesFromPath(result)));
+			}
+
+			if (printMetrics) {
+				System.out.println("\nMetrics: " + primObj.getMetrics().toJson());
+			}
 
 			scanObj.close();
 		}
 
 	}
+
+	/**
+	 * The cache key of a request: the data file, the range and every option
+	 * that changes the cycle
+	 * 
+	 * @param primObj
+	 * @param startPos
+	 * @param endPos
+	 * @param engine
+	 * @param improveMillis
+	 * @return
+	 * @throws IOException
+	 */
+	private static String cacheKey(PrimMST primObj, int startPos, int endPos,
+			String engine, long improveMillis) throws IOException {
+		// The rows that are actually loaded, so 1 99999 and 1 2871 share a key
+		int first = Math.max(0, startPos);
+		int last = Math.min(endPos, primObj.getRowCount() - 1);
+		int[] rows = new int[Math.max(0, last - first + 1)];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = first + i;
+		}
+		return TourCache.key(TourCache.fingerprint(primObj.getDataFile()),
+				rows, primObj.getOptionsKey() + ",engine=" + engine
+						+ ",improve=" + improveMillis);
+	}
+
+	/**
+	 * Prints the records of the range and a cycle found in the cache. Only
+	 * the rows are read, nothing is solved
+	 * 
+	 * @param primObj
+	 * @param startPos
+	 * @param endPos
+	 * @param entry
+	 */
+	private static void printCached(PrimMST primObj, int startPos,
+			int endPos, TourCache.Entry entry) {
+		System.out.println("Crime records Processed: \n");
+		for (String row : primObj.getDataFromFile(startPos, endPos)) {
+			System.out.println(row);
+		}
+
+		System.out.print("\nCached Cycle (not necessarily optimum): ");
+		System.out.println(Arrays.toString(entry.getTour()));
+		System.out.println("Length of the Cycle: "
+				+ String.format("%.2f", entry.getMiles()) + " miles");
+	}
+
+	/**
+	 * Times the MST on one thread and then on the given number of threads
+	 * and prints the best time of each with the speedup. Every thread count
+	 * gets a few untimed runs first, so the JIT and the context buffers are
+	 * warm for both, as in PipelineBenchmark
+	 * 
+	 * @param primObj
+	 * @param threads
+	 */
+	private static void reportSpeedup(PrimMST primObj, int threads) {
+		long sequential = bestMSTTime(primObj, 1);
+		long parallel = bestMSTTime(primObj, threads);
+		primObj.setThreads(threads);
+
+		System.out.println("\nMST engine: " + primObj.chooseEngine()
+				+ ", threads: " + primObj.getThreads());
+		System.out.println("MST time on 1 thread: " + sequential / 1000000.0
+				+ " ms, on " + threads + " threads: " + parallel / 1000000.0
+				+ " ms, speedup: "
+				+ String.format("%.2f", (double) sequential / parallel)
+				+ " (best of " + SPEEDUP_RUNS + " runs)");
+	}
+
+	/**
+	 * Shortest of SPEEDUP_RUNS timed MST runs on the given number of threads,
+	 * after SPEEDUP_WARMUP untimed ones
+	 * 
+	 * @param primObj
+	 * @param threads
+	 * @return nanoseconds
+	 */
+	private static long bestMSTTime(PrimMST primObj, int threads) {
+		primObj.setThreads(threads);
+		for (int i = 0; i < SPEEDUP_WARMUP; i++) {
+			primObj.getMST(0);
+		}
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < SPEEDUP_RUNS; i++) {
+			long time = System.nanoTime();
+			primObj.getMST(0);
+			best = Math.min(best, System.nanoTime() - time);
+		}
+		return best;
+	}
 }
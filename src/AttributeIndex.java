@@ -0,0 +1,635 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Dictionary encoded Offense, Tract and Date columns of the crime csv with a
+ * {@link RowBitmap} of the rows of every distinct value, so records can be
+ * picked by their attributes instead of by a line range. A {@link PointStore}
+ * can be indexed too: its Offense and Tract codes are taken over as they are,
+ * but it has no Date column.
+ * 
+ * <pre>
+ * AttributeIndex index = AttributeIndex.open("CrimeLatLonXY1990.csv");
+ * primObj.loadGraph(index, RowPredicate.parse("offense=ROBBERY,tract=160600"));
+ * </pre>
+ * 
+ * The index is kept in a sidecar next to the file (its name plus ".attr"),
+ * reused while the file keeps its size and modification time.
+ */
+public class AttributeIndex {
+
+	/**
+	 * Column numbers of the attributes in the crime csv
+	 */
+	public static final int OFFENSE_COLUMN = 4;
+	public static final int DATE_COLUMN = 5;
+	public static final int TRACT_COLUMN = 6;
+
+	private static final int MAGIC = 0x54535041;
+	private static final int VERSION = 2;
+	private static final String SUFFIX = ".attr";
+
+	private String dataFile;
+	private PointSet points;
+
+	private Column offenses = new Column("Offense");
+	private Column tracts = new Column("Tract");
+	private Column dates = new Column("Date");
+
+	/**
+	 * Day number (see parseDay) of every date code
+	 */
+	private int[] dateDays;
+
+	/**
+	 * One dictionary encoded column: the code of every row and the rows of
+	 * every code. values is null if the file has no such column
+	 */
+	private static class Column {
+		String attribute;
+		Map<String, Integer> codes = new HashMap<>();
+		List<String> names = new ArrayList<>();
+		List<RowBitmap> rows = new ArrayList<>();
+		int[] values;
+
+		/**
+		 * Rows of every lower case value, the union over all its spellings
+		 */
+		Map<String, RowBitmap> rowsByKey = new HashMap<>();
+
+		Column(String attribute) {
+			this.attribute = attribute;
+		}
+
+		void add(int row, String value) {
+			int code = encode(value, codes, names);
+			if (code == rows.size()) {
+				rows.add(new RowBitmap());
+			}
+			values[row] = code;
+			rows.get(code).add(row);
+		}
+
+		/**
+		 * Takes over a column that is dictionary encoded already
+		 * 
+		 * @param rowCodes
+		 *            code of every row, null if there is no such column
+		 * @param dictionary
+		 *            name of every code
+		 */
+		void addAll(int[] rowCodes, String[] dictionary) {
+			if (rowCodes == null) {
+				return;
+			}
+			for (String name : dictionary) {
+				codes.put(name, names.size());
+				names.add(name);
+				rows.add(new RowBitmap());
+			}
+			values = rowCodes;
+			for (int row = 0; row < values.length; row++) {
+				rows.get(values[row]).add(row);
+			}
+		}
+
+		/**
+		 * The rows of a value. The case of the letters does not matter
+		 * 
+		 * @param value
+		 * @return
+		 * @throws IllegalArgumentException
+		 *             if no row has the value, listing the values there are
+		 */
+		RowBitmap rowsOf(String value) {
+			if (values == null) {
+				throw new IllegalArgumentException("The data file has no "
+						+ attribute + " column");
+			}
+			RowBitmap result = rowsByKey.get(key(value));
+			if (result == null) {
+				throw new IllegalArgumentException("Unknown " + attribute
+						+ " " + value + ", the values are " + names);
+			}
+			return result;
+		}
+
+		/**
+		 * Fills rowsByKey once the codes and rows are complete
+		 */
+		void finish() {
+			rowsByKey.clear();
+			for (int code = 0; code < names.size(); code++) {
+				String key = key(names.get(code));
+				RowBitmap other = rowsByKey.get(key);
+				rowsByKey.put(key, other == null ? rows.get(code) : RowBitmap
+						.or(other, rows.get(code)));
+			}
+		}
+
+		private static String key(String value) {
+			return value.toLowerCase(Locale.ROOT);
+		}
+
+		String get(int row) {
+			return values == null ? "" : names.get(values[row]);
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeBoolean(values != null);
+			if (values == null) {
+				return;
+			}
+			out.writeInt(names.size());
+			for (String name : names) {
+				out.writeUTF(name);
+			}
+			for (int value : values) {
+				out.writeInt(value);
+			}
+			for (RowBitmap bitmap : rows) {
+				bitmap.write(out);
+			}
+		}
+
+		void read(DataInputStream in, int rowCount) throws IOException {
+			if (!in.readBoolean()) {
+				return;
+			}
+			int count = in.readInt();
+			if (count < 0 || count > rowCount) {
+				throw new IOException("Bad value count " + count + " of "
+						+ attribute);
+			}
+			for (int code = 0; code < count; code++) {
+				String name = in.readUTF();
+				codes.put(name, code);
+				names.add(name);
+			}
+			values = new int[rowCount];
+			int[] counts = new int[count];
+			for (int row = 0; row < rowCount; row++) {
+				values[row] = in.readInt();
+				if (values[row] < 0 || values[row] >= count) {
+					throw new IOException("Bad code in row " + row);
+				}
+				counts[values[row]]++;
+			}
+			for (int code = 0; code < count; code++) {
+				RowBitmap bitmap = RowBitmap.read(in);
+				if (bitmap.cardinality() != counts[code]) {
+					throw new IOException("Rows of " + attribute + " "
+							+ names.get(code) + " do not match the codes");
+				}
+				rows.add(bitmap);
+			}
+		}
+	}
+
+	private AttributeIndex(String dataFile) {
+		this.dataFile = dataFile;
+	}
+
+	/**
+	 * Reads the index of a csv or point store from its sidecar, building and
+	 * saving it first if there is no sidecar or the file changed since it was
+	 * written
+	 * 
+	 * @param dataFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static AttributeIndex open(String dataFile) throws IOException {
+		File data = new File(dataFile);
+		File sidecar = new File(dataFile + SUFFIX);
+
+		AttributeIndex index = read(dataFile, sidecar, data.length(),
+				data.lastModified());
+		if (index != null) {
+			return index;
+		}
+
+		index = build(dataFile);
+		try {
+			index.write(sidecar, data.length(), data.lastModified());
+		} catch (IOException e) {
+			// Read only directory. The index still works for this run
+		}
+		return index;
+	}
+
+	/**
+	 * Reads every row of the csv or point store and indexes its attributes,
+	 * without looking at or writing the sidecar
+	 * 
+	 * @param dataFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static AttributeIndex build(String dataFile) throws IOException {
+		if (PointStore.isPointStore(dataFile)) {
+			PointStore store = new PointStore(dataFile);
+			store.load(0, Integer.MAX_VALUE - 1);
+			AttributeIndex index = new AttributeIndex(dataFile);
+			index.points = new PointSet(store.getXs(), store.getYs());
+			index.offenses.addAll(store.getOffenses(), store.getOffenseNames());
+			index.tracts.addAll(store.getTracts(), store.getTractNames());
+			index.finish();
+			return index;
+		}
+
+		CsvPointLoader loader = new CsvPointLoader(dataFile);
+		loader.load(0, Integer.MAX_VALUE - 1);
+		String[] lines = loader.getRows();
+		int n = lines.length;
+
+		AttributeIndex index = new AttributeIndex(dataFile);
+		index.points = new PointSet(loader.getXs(), loader.getYs());
+		index.offenses.values = new int[n];
+		index.tracts.values = new int[n];
+		index.dates.values = new int[n];
+		for (int row = 0; row < n; row++) {
+			String[] fields = lines[row].split(",", -1);
+			index.offenses.add(row, field(fields, OFFENSE_COLUMN));
+			index.tracts.add(row, field(fields, TRACT_COLUMN));
+			index.dates.add(row, field(fields, DATE_COLUMN));
+		}
+
+		index.finish();
+		return index;
+	}
+
+	/**
+	 * Builds the lookups of the columns once they are complete
+	 */
+	private void finish() {
+		offenses.finish();
+		tracts.finish();
+		dates.finish();
+		dateDays = new int[dates.names.size()];
+		for (int code = 0; code < dateDays.length; code++) {
+			dateDays[code] = parseDay(dates.names.get(code));
+		}
+	}
+
+	/**
+	 * Reads the sidecar if it exists and matches the data file
+	 * 
+	 * @param dataFile
+	 * @param sidecar
+	 * @param dataSize
+	 * @param dataModified
+	 * @return the index or null if the sidecar is missing or stale
+	 * @throws IOException
+	 *             if the sidecar is damaged
+	 */
+	private static AttributeIndex read(String dataFile, File sidecar,
+			long dataSize, long dataModified) throws IOException {
+		if (!sidecar.isFile()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(sidecar)))) {
+			int rowCount;
+			try {
+				if (in.readInt() != MAGIC) {
+					throw new IOException("Not an attribute index");
+				}
+				if (in.readInt() != VERSION || in.readLong() != dataSize
+						|| in.readLong() != dataModified) {
+					return null;
+				}
+				rowCount = in.readInt();
+			} catch (IOException e) {
+				throw damaged(sidecar, e);
+			}
+			if (rowCount != PointStore.countRows(dataFile)) {
+				return null;
+			}
+
+			try {
+				double[] xs = new double[rowCount];
+				double[] ys = new double[rowCount];
+				for (int row = 0; row < rowCount; row++) {
+					xs[row] = in.readDouble();
+					ys[row] = in.readDouble();
+				}
+
+				AttributeIndex index = new AttributeIndex(dataFile);
+				index.points = new PointSet(xs, ys);
+				index.offenses.read(in, rowCount);
+				index.tracts.read(in, rowCount);
+				index.dates.read(in, rowCount);
+				if (in.read() != -1) {
+					throw new IOException("Data after the last column");
+				}
+				index.finish();
+				return index;
+			} catch (IOException e) {
+				throw damaged(sidecar, e);
+			}
+		}
+	}
+
+	private static IOException damaged(File sidecar, IOException cause) {
+		String reason = cause instanceof EOFException ? "cut short" : cause
+				.getMessage();
+		return new IOException("Damaged attribute index " + sidecar + " ("
+				+ reason + "), delete it to rebuild it", cause);
+	}
+
+	/**
+	 * Writes the sidecar to a temporary file of its own and moves it over the
+	 * old one in one step, so a reader never sees half an index
+	 * 
+	 * @param sidecar
+	 * @param csvSize
+	 * @param csvModified
+	 * @throws IOException
+	 */
+	private void write(File sidecar, long csvSize, long csvModified)
+			throws IOException {
+		File temp = File.createTempFile("attr", ".tmp", sidecar
+				.getAbsoluteFile().getParentFile());
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(csvSize);
+				out.writeLong(csvModified);
+				out.writeInt(size());
+				for (int row = 0; row < size(); row++) {
+					out.writeDouble(points.getX(row));
+					out.writeDouble(points.getY(row));
+				}
+				offenses.write(out);
+				tracts.write(out);
+				dates.write(out);
+			}
+			Files.move(temp.toPath(), sidecar.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * A field of a split csv line, empty if the line is too short
+	 * 
+	 * @param fields
+	 * @param column
+	 * @return
+	 */
+	static String field(String[] fields, int column) {
+		return column < fields.length ? fields[column].trim() : "";
+	}
+
+	/**
+	 * The dictionary code of a value, adding the value to the dictionary
+	 * (codes and names) if it is new
+	 * 
+	 * @param value
+	 * @param codes
+	 * @param names
+	 * @return
+	 */
+	static int encode(String value, Map<String, Integer> codes,
+			List<String> names) {
+		Integer code = codes.get(value);
+		if (code == null) {
+			code = names.size();
+			codes.put(value, code);
+			names.add(value);
+		}
+		return code;
+	}
+
+	/**
+	 * Day number of a M/d/yyyy date, counted from 1/1/1970
+	 * 
+	 * @param date
+	 * @return
+	 */
+	public static int parseDay(String date) {
+		String[] parts = date.trim().split("/");
+		if (parts.length != 3) {
+			throw new IllegalArgumentException("Not a M/d/yyyy date: " + date);
+		}
+		int month = Integer.parseInt(parts[0]);
+		int day = Integer.parseInt(parts[1]);
+		int year = Integer.parseInt(parts[2]);
+
+		// Days from the civil date, with the year starting in March
+		year -= month <= 2 ? 1 : 0;
+		int era = (year >= 0 ? year : year - 399) / 400;
+		int yearOfEra = year - era * 400;
+		int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day
+				- 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+				+ dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * The rows matching the predicate, in increasing order
+	 * 
+	 * @param predicate
+	 * @return
+	 */
+	public int[] select(RowPredicate predicate) {
+		return predicate.evaluate(this).toArray();
+	}
+
+	RowBitmap getOffenseRows(String offense) {
+		return offenses.rowsOf(offense);
+	}
+
+	RowBitmap getTractRows(String tract) {
+		return tracts.rowsOf(tract);
+	}
+
+	/**
+	 * Rows dated firstDay to lastDay (day numbers, both inclusive)
+	 * 
+	 * @param firstDay
+	 * @param lastDay
+	 * @return
+	 */
+	RowBitmap getDateRows(int firstDay, int lastDay) {
+		if (dates.values == null) {
+			throw new IllegalArgumentException(dataFile
+					+ " has no Date column");
+		}
+		RowBitmap result = new RowBitmap();
+		for (int code = 0; code < dateDays.length; code++) {
+			if (dateDays[code] >= firstDay && dateDays[code] <= lastDay) {
+				result = RowBitmap.or(result, dates.rows.get(code));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The coordinates of all rows
+	 * 
+	 * @return
+	 */
+	public PointSet getPoints() {
+		return points;
+	}
+
+	/**
+	 * The csv lines of the rows, read one by one. For a point store the rows
+	 * are built from the stored columns, see PointStore.getRows
+	 * 
+	 * @param rows
+	 *            in increasing order
+	 * @return
+	 * @throws IOException
+	 */
+	public String[] getRows(int[] rows) throws IOException {
+		if (PointStore.isPointStore(dataFile)) {
+			PointStore store = new PointStore(dataFile);
+			store.load(rows);
+			return store.getRows();
+		}
+
+		LineIndex lineIndex = LineIndex.open(dataFile);
+		String[] lines = new String[rows.length];
+		try (RandomAccessFile file = new RandomAccessFile(dataFile, "r")) {
+			byte[] buffer = new byte[256];
+			for (int k = 0; k < rows.length; k++) {
+				long offset = lineIndex.getOffset(rows[k]);
+				int length = (int) (lineIndex.getOffset(rows[k] + 1) - offset);
+				if (length > buffer.length) {
+					buffer = new byte[length];
+				}
+				file.seek(offset);
+				file.readFully(buffer, 0, length);
+				while (length > 0
+						&& (buffer[length - 1] == '\n' || buffer[length - 1] == '\r')) {
+					length--;
+				}
+				lines[k] = new String(buffer, 0, length, StandardCharsets.UTF_8);
+			}
+		}
+		return lines;
+	}
+
+	public String getDataFile() {
+		return dataFile;
+	}
+
+	public int size() {
+		return points.size();
+	}
+
+	/**
+	 * Distinct values of the Offense column, in the order they first appear
+	 * 
+	 * @return
+	 */
+	public List<String> getOffenseNames() {
+		return offenses.names;
+	}
+
+	public List<String> getTractNames() {
+		return tracts.names;
+	}
+
+	public List<String> getDateNames() {
+		return dates.names;
+	}
+
+	/**
+	 * The Offense of a row, empty if the file has no Offense column
+	 * 
+	 * @param row
+	 * @return
+	 */
+	public String getOffense(int row) {
+		return offenses.get(row);
+	}
+
+	public String getTract(int row) {
+		return tracts.get(row);
+	}
+
+	public String getDate(int row) {
+		return dates.get(row);
+	}
+
+	/**
+	 * Rough bytes held by the bitmaps
+	 * 
+	 * @return
+	 */
+	public long getBitmapBytes() {
+		long bytes = 0;
+		for (Column column : new Column[] { offenses, tracts, dates }) {
+			for (RowBitmap bitmap : column.rows) {
+				bytes += bitmap.getSizeInBytes();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Opens the index of a csv, runs a query on it and solves the tour over
+	 * the matching records: AttributeIndex [file] [predicate]
+	 * 
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		String dataFile = args.length > 0 ? args[0] : "CrimeLatLonXY1990.csv";
+		String where = args.length > 1 ? args[1]
+				: "offense=ROBBERY,date=3/1/1990..3/31/1990";
+
+		long time = System.nanoTime();
+		AttributeIndex index = open(dataFile);
+		System.out.printf("Opened the index of %d rows in %.1f ms: %d offenses, %d "
+				+ "tracts, %d dates, %d bitmap bytes%n", index.size(),
+				(System.nanoTime() - time) / 1e6, index.getOffenseNames()
+						.size(), index.getTractNames().size(), index
+						.getDateNames().size(), index.getBitmapBytes());
+
+		RowPredicate predicate = RowPredicate.parse(where);
+		time = System.nanoTime();
+		int[] rows = index.select(predicate);
+		System.out.printf("%s: %d rows in %.3f ms%n", where, rows.length,
+				(System.nanoTime() - time) / 1e6);
+
+		PrimMST primObj = new PrimMST();
+		primObj.loadGraph(index, predicate);
+		if (primObj.getSize() > 0) {
+			primObj.getMST(0);
+			int[] cycle = primObj.getHamiltonianCycle(0);
+			System.out.println("Length of the Cycle: "
+					+ primObj.getLengthFromPath(cycle) + " miles");
+		}
+		String[] lines = primObj.getFileData();
+		for (int k = 0; k < Math.min(5, lines.length); k++) {
+			System.out.println(lines[k]);
+		}
+	}
+}
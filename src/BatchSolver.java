@@ -0,0 +1,322 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Solves many independent tours over one data file. The file is read once
+ * and kept as a {@link PointSet}, then every request (a row range or any set
+ * of rows) runs the PrimMST pipeline on its own copy of the points on an
+ * executor supplied by the caller. Results come back in the order they
+ * finish, not the order they were asked for.
+ * 
+ * Every request runs on one thread, the executor decides how many run at the
+ * same time. Each thread keeps a {@link SolverContext}, so the working
+ * buffers of a request are reused by the next request on that thread.
+ * 
+ * With a {@link TourCache} a request that was solved before, here or by an
+ * earlier process sharing the cache directory, is answered from the cache.
+ */
+public class BatchSolver {
+
+	private PointSet allPoints;
+
+	/**
+	 * Identifies the data set in cache keys. Computed on first use for points
+	 * that did not come from a file
+	 */
+	private String fingerprint = null;
+	private TourCache cache = null;
+
+	private MSTEngine mstEngine = MSTEngine.AUTO;
+	private boolean christofides = false;
+	private long improveMillis = -1;
+
+	private final ThreadLocal<SolverContext> contexts = new ThreadLocal<SolverContext>() {
+		@Override
+		protected SolverContext initialValue() {
+			return new SolverContext();
+		}
+	};
+
+	/**
+	 * Reads every row of the data file (csv or {@link PointStore})
+	 * 
+	 * @param dataFile
+	 * @throws IOException
+	 */
+	public BatchSolver(String dataFile) throws IOException {
+		PointLoader loader = PointStore.isPointStore(dataFile) ? new PointStore(
+				dataFile) : new CsvPointLoader(dataFile);
+		loader.load(0, Integer.MAX_VALUE - 1);
+		allPoints = new PointSet(loader.getXs(), loader.getYs());
+		fingerprint = TourCache.fingerprint(dataFile);
+	}
+
+	public BatchSolver(PointSet allPoints) {
+		this.allPoints = allPoints;
+	}
+
+	public PointSet getPoints() {
+		return allPoints;
+	}
+
+	public void setMSTEngine(MSTEngine mstEngine) {
+		this.mstEngine = mstEngine;
+	}
+
+	/**
+	 * Use the Christofides style tour instead of the MST preorder walk
+	 * 
+	 * @param christofides
+	 */
+	public void setChristofides(boolean christofides) {
+		this.christofides = christofides;
+	}
+
+	/**
+	 * Runs 2-opt / Or-opt on every tour for at most this long. Negative (the
+	 * default) skips it, 0 runs until no move helps
+	 * 
+	 * @param improveMillis
+	 */
+	public void setImproveMillis(long improveMillis) {
+		this.improveMillis = improveMillis;
+	}
+
+	/**
+	 * Answers requests from the cache when it can and adds every solved tour
+	 * to it. Null (the default) solves every request
+	 * 
+	 * @param cache
+	 */
+	public void setCache(TourCache cache) {
+		this.cache = cache;
+	}
+
+	public TourCache getCache() {
+		return cache;
+	}
+
+	private synchronized String getFingerprint() {
+		if (fingerprint == null) {
+			fingerprint = TourCache.fingerprint(allPoints);
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Solves the rows start to end (both inclusive) on the calling thread
+	 * 
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public TourResult solve(int start, int end) {
+		return solve(rangeRows(start, end));
+	}
+
+	/**
+	 * Solves the given rows on the calling thread
+	 * 
+	 * @param rows
+	 * @return
+	 */
+	public TourResult solve(int[] rows) {
+		long time = System.nanoTime();
+
+		PrimMST primObj = new PrimMST();
+		primObj.setContext(contexts.get());
+		primObj.setThreads(1);
+		primObj.setMSTEngine(mstEngine);
+		primObj.getMetrics().setEnabled(false);
+
+		String key = null;
+		if (cache != null) {
+			key = TourCache.key(getFingerprint(), rows,
+					primObj.getOptionsKey() + ",christofides=" + christofides
+							+ ",improve=" + improveMillis);
+			TourCache.Entry entry = cache.get(key);
+			if (entry != null) {
+				return new TourResult(rows, entry.getParent(),
+						entry.getTour(), entry.getMiles(), System.nanoTime()
+								- time, true);
+			}
+		}
+
+		primObj.loadGraph(allPoints.subset(rows));
+
+		int[] parent = new int[0];
+		int[] tour = new int[0];
+		double miles = 0.0;
+		if (rows.length > 0) {
+			primObj.getMST(0);
+			parent = primObj.getParent();
+			tour = christofides ? primObj.getChristofidesCycle(0) : primObj
+					.getHamiltonianCycle(0);
+			if (improveMillis >= 0) {
+				tour = primObj.improveTour(tour, improveMillis);
+			}
+			miles = primObj.getMilesFromPath(tour);
+		}
+		if (cache != null) {
+			cache.put(key, new TourCache.Entry(parent, tour, miles));
+		}
+		return new TourResult(rows, parent, tour, miles, System.nanoTime()
+				- time, false);
+	}
+
+	/**
+	 * Solves row ranges on the executor. Every range is {start, end}, both
+	 * inclusive. The iterator hands out the results as they finish and
+	 * blocks until the next one is ready
+	 * 
+	 * @param ranges
+	 * @param executor
+	 * @return
+	 */
+	public Iterator<TourResult> solveRanges(List<int[]> ranges,
+			ExecutorService executor) {
+		List<int[]> requests = new ArrayList<>(ranges.size());
+		for (int[] range : ranges) {
+			requests.add(rangeRows(range[0], range[1]));
+		}
+		return solveAll(requests, executor);
+	}
+
+	/**
+	 * Solves sets of rows on the executor. The iterator hands out the results
+	 * as they finish and blocks until the next one is ready
+	 * 
+	 * @param requests
+	 * @param executor
+	 * @return
+	 */
+	public Iterator<TourResult> solveAll(List<int[]> requests,
+			ExecutorService executor) {
+		final CompletionService<TourResult> completion = new ExecutorCompletionService<>(
+				executor);
+		for (final int[] rows : requests) {
+			completion.submit(new Callable<TourResult>() {
+				@Override
+				public TourResult call() {
+					return solve(rows);
+				}
+			});
+		}
+
+		final int total = requests.size();
+		return new Iterator<TourResult>() {
+			private int taken = 0;
+
+			@Override
+			public boolean hasNext() {
+				return taken < total;
+			}
+
+			@Override
+			public TourResult next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				taken++;
+				try {
+					return completion.take().get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted", e);
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Request failed",
+							e.getCause());
+				}
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * The rows start to end, cut to the rows that exist
+	 * 
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private int[] rangeRows(int start, int end) {
+		int first = Math.max(0, start);
+		int last = Math.min(end, allPoints.size() - 1);
+		int[] rows = new int[Math.max(0, last - first + 1)];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = first + i;
+		}
+		return rows;
+	}
+
+	/**
+	 * Solves ranges of the csv on a thread pool and prints every result when
+	 * it is done: BatchSolver file threads [-cache dir] start-end [start-end
+	 * ...]. With -cache the tours are kept in the directory, so running the
+	 * same ranges again answers them from there
+	 * 
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		String dataFile = args.length > 0 ? args[0] : "CrimeLatLonXY1990.csv";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime
+				.getRuntime().availableProcessors();
+
+		List<int[]> ranges = new ArrayList<>();
+		String cacheDirectory = null;
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].equals("-cache") && i + 1 < args.length) {
+				cacheDirectory = args[++i];
+				continue;
+			}
+			String[] bounds = args[i].split("-");
+			ranges.add(new int[] { Integer.parseInt(bounds[0]),
+					Integer.parseInt(bounds[1]) });
+		}
+		if (ranges.isEmpty()) {
+			for (int start = 0; start < 2800; start += 200) {
+				ranges.add(new int[] { start, start + 199 });
+			}
+		}
+
+		long time = System.nanoTime();
+		BatchSolver solver = new BatchSolver(dataFile);
+		System.out.println("Loaded " + solver.getPoints().size()
+				+ " points in " + (System.nanoTime() - time) / 1000000 + " ms");
+		if (cacheDirectory != null) {
+			solver.setCache(new TourCache(64L << 20, new File(cacheDirectory)));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			time = System.nanoTime();
+			Iterator<TourResult> results = solver.solveRanges(ranges, executor);
+			while (results.hasNext()) {
+				System.out.println(results.next());
+			}
+			System.out.println("Solved " + ranges.size() + " ranges in "
+					+ (System.nanoTime() - time) / 1000000 + " ms on "
+					+ threads + " threads");
+			if (solver.getCache() != null) {
+				System.out.println("Cache: " + solver.getCache());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,258 @@
+import java.util.Arrays;
+
+/**
+ * Christofides style tour: the MST from {@link PrimMST} plus a matching of
+ * the vertices that have an odd degree in the tree gives a graph where every
+ * vertex has an even degree. Its Euler circuit, with repeated vertices
+ * skipped, is the tour.
+ * 
+ * An exact minimum weight perfect matching (blossom) would give the 1.5
+ * bound, but costs O(n^3). Here the matching is built greedily from the
+ * nearest neighbour candidates of every odd vertex, shortest edges first,
+ * which is fast and in practice close to the exact matching.
+ */
+public class ChristofidesTour {
+
+	/**
+	 * Number of nearest odd vertices looked at per odd vertex in one round of
+	 * the greedy matching
+	 */
+	private static final int CANDIDATES = 10;
+
+	/**
+	 * At or below this many unmatched vertices the greedy matching looks at
+	 * all pairs
+	 */
+	private static final int ALL_PAIRS_LIMIT = 64;
+
+	private PointSet points;
+	private int size;
+
+	private int oddCount = 0;
+	private double matchingWeight = 0.0;
+
+	public ChristofidesTour(PointSet points) {
+		this.points = points;
+		this.size = points.size();
+	}
+
+	/**
+	 * Builds the closed tour (root repeated at the end) from an MST given as a
+	 * parent array with parent[root] == root
+	 * 
+	 * @param parent
+	 * @param root
+	 * @return
+	 */
+	public int[] build(int[] parent, int root) {
+		if (size < 3) {
+			int[] tour = new int[size + 1];
+			for (int i = 0; i < size; i++) {
+				tour[i] = (root + i) % size;
+			}
+			tour[size] = root;
+			return tour;
+		}
+
+		int[] degree = new int[size];
+		for (int i = 0; i < size; i++) {
+			if (i != root) {
+				degree[i]++;
+				degree[parent[i]]++;
+			}
+		}
+
+		int[] odd = new int[size];
+		oddCount = 0;
+		for (int i = 0; i < size; i++) {
+			if ((degree[i] & 1) == 1) {
+				odd[oddCount++] = i;
+			}
+		}
+		odd = Arrays.copyOf(odd, oddCount);
+
+		int[] mate = greedyMatching(odd);
+
+		// Edges of the multigraph: the tree edges, then the matching edges
+		int edgeCount = size - 1 + oddCount / 2;
+		int[] edgeFrom = new int[edgeCount];
+		int[] edgeTo = new int[edgeCount];
+		int e = 0;
+		for (int i = 0; i < size; i++) {
+			if (i != root) {
+				edgeFrom[e] = i;
+				edgeTo[e] = parent[i];
+				e++;
+			}
+		}
+		matchingWeight = 0.0;
+		for (int i = 0; i < oddCount; i++) {
+			int v = odd[i];
+			if (v < mate[v]) {
+				edgeFrom[e] = v;
+				edgeTo[e] = mate[v];
+				matchingWeight += points.distance(v, mate[v]);
+				e++;
+			}
+		}
+
+		return shortcut(eulerCircuit(edgeFrom, edgeTo, root), root);
+	}
+
+	/**
+	 * Greedy matching of the odd vertices. Every round takes the nearest
+	 * unmatched neighbours of every unmatched vertex as candidate edges and
+	 * adds them shortest first when both ends are still free. The shortest
+	 * candidate always has both ends free, so every round matches something
+	 * 
+	 * @param odd
+	 * @return mate[v] for every odd vertex v
+	 */
+	private int[] greedyMatching(int[] odd) {
+		int[] mate = new int[size];
+		Arrays.fill(mate, -1);
+
+		int[] unmatched = odd.clone();
+		int unmatchedCount = unmatched.length;
+
+		while (unmatchedCount > 0) {
+			int[] ids = Arrays.copyOf(unmatched, unmatchedCount);
+			int perVertex = unmatchedCount <= ALL_PAIRS_LIMIT ? unmatchedCount - 1
+					: Math.min(CANDIDATES, unmatchedCount - 1);
+
+			int[] candidateA = new int[unmatchedCount * perVertex];
+			int[] candidateB = new int[candidateA.length];
+			long[] keys = new long[candidateA.length];
+			int candidates = 0;
+
+			KdTree tree = new KdTree(points.getXs(), points.getYs(), ids);
+			int[] found = new int[perVertex];
+			double[] foundDistance = new double[perVertex];
+
+			for (int i = 0; i < unmatchedCount; i++) {
+				int count = tree.nearest(ids[i], perVertex, found,
+						foundDistance);
+				for (int k = 0; k < count; k++) {
+					candidateA[candidates] = ids[i];
+					candidateB[candidates] = found[k];
+					// The float bits of a length that is not negative sort
+					// like the length, the low half keeps the candidate
+					keys[candidates] = ((long) Float
+							.floatToIntBits((float) foundDistance[k]) << 32)
+							| candidates;
+					candidates++;
+				}
+			}
+
+			Arrays.sort(keys, 0, candidates);
+			for (int k = 0; k < candidates; k++) {
+				int candidate = (int) keys[k];
+				int a = candidateA[candidate];
+				int b = candidateB[candidate];
+				if (mate[a] == -1 && mate[b] == -1) {
+					mate[a] = b;
+					mate[b] = a;
+				}
+			}
+
+			int count = 0;
+			for (int i = 0; i < unmatchedCount; i++) {
+				if (mate[unmatched[i]] == -1) {
+					unmatched[count++] = unmatched[i];
+				}
+			}
+			unmatchedCount = count;
+		}
+		return mate;
+	}
+
+	/**
+	 * Hierholzer's algorithm on the multigraph. Returns the circuit as a list
+	 * of vertices starting and ending at the root
+	 * 
+	 * @param edgeFrom
+	 * @param edgeTo
+	 * @param root
+	 * @return
+	 */
+	private int[] eulerCircuit(int[] edgeFrom, int[] edgeTo, int root) {
+		int edgeCount = edgeFrom.length;
+
+		int[] adjStart = new int[size + 1];
+		for (int e = 0; e < edgeCount; e++) {
+			adjStart[edgeFrom[e] + 1]++;
+			adjStart[edgeTo[e] + 1]++;
+		}
+		for (int i = 0; i < size; i++) {
+			adjStart[i + 1] += adjStart[i];
+		}
+		int[] next = Arrays.copyOf(adjStart, size);
+		int[] adjEdge = new int[2 * edgeCount];
+		for (int e = 0; e < edgeCount; e++) {
+			adjEdge[next[edgeFrom[e]]++] = e;
+			adjEdge[next[edgeTo[e]]++] = e;
+		}
+
+		// next[v] now walks the unused edges of v
+		System.arraycopy(adjStart, 0, next, 0, size);
+		boolean[] used = new boolean[edgeCount];
+		int[] circuit = new int[edgeCount + 1];
+		int circuitLength = 0;
+		Stack stack = new Stack(edgeCount + 1);
+
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			int v = stack.peek();
+			while (next[v] < adjStart[v + 1] && used[adjEdge[next[v]]]) {
+				next[v]++;
+			}
+			if (next[v] == adjStart[v + 1]) {
+				circuit[circuitLength++] = stack.pop();
+			} else {
+				int e = adjEdge[next[v]++];
+				used[e] = true;
+				stack.push(edgeFrom[e] == v ? edgeTo[e] : edgeFrom[e]);
+			}
+		}
+		return circuit;
+	}
+
+	/**
+	 * Walks the circuit and keeps only the first visit of every vertex
+	 * 
+	 * @param circuit
+	 * @param root
+	 * @return
+	 */
+	private int[] shortcut(int[] circuit, int root) {
+		int[] tour = new int[size + 1];
+		boolean[] visited = new boolean[size];
+		int count = 0;
+		for (int v : circuit) {
+			if (!visited[v]) {
+				visited[v] = true;
+				tour[count++] = v;
+			}
+		}
+		tour[count++] = root;
+		return count == tour.length ? tour : Arrays.copyOf(tour, count);
+	}
+
+	/**
+	 * Number of vertices with an odd degree in the last tree
+	 * 
+	 * @return
+	 */
+	public int getOddCount() {
+		return oddCount;
+	}
+
+	/**
+	 * Total length of the last matching
+	 * 
+	 * @return
+	 */
+	public double getMatchingWeight() {
+		return matchingWeight;
+	}
+}
@@ -0,0 +1,347 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the X and Y columns of a range of rows from the crime csv file. The
+ * file is memory mapped and the two numbers are parsed straight from the
+ * mapped bytes into primitive arrays, so no String is created per row. Only
+ * the byte offset of every row is kept, the row text is decoded later if
+ * somebody asks for it.
+ */
+public class CsvPointLoader implements PointLoader {
+
+	/**
+	 * The file is mapped in windows of this size so files over 2GB work too
+	 */
+	private static final long WINDOW_SIZE = 1L << 28;
+
+	/**
+	 * Powers of ten that are exact doubles, used by the fast path of
+	 * parseDouble
+	 */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private String fileName;
+
+	private double[] xs = new double[0];
+	private double[] ys = new double[0];
+
+	/**
+	 * Byte offset and length (without the line break) of every loaded row
+	 */
+	private long[] rowOffsets = new long[0];
+	private int[] rowLengths = new int[0];
+	private int count = 0;
+
+	/**
+	 * Seek to the first row with the {@link LineIndex} sidecar instead of
+	 * reading the file from the top
+	 */
+	private boolean useIndex = true;
+
+	public CsvPointLoader(String fileName) {
+		this.fileName = fileName;
+	}
+
+	public CsvPointLoader(String fileName, boolean useIndex) {
+		this.fileName = fileName;
+		this.useIndex = useIndex;
+	}
+
+	/**
+	 * Loads the data rows start to end (both inclusive, 0 is the first row
+	 * after the header). If the file is shorter, fewer rows are loaded. When
+	 * the line index is on, the file is only read from the first row of the
+	 * range on
+	 * 
+	 * @param start
+	 * @param end
+	 * @throws IOException
+	 */
+	@Override
+	public void load(int start, int end) throws IOException {
+		LineIndex index = useIndex ? LineIndex.open(fileName) : null;
+		if (index != null) {
+			// No room needed for rows past the end of the file
+			end = Math.min(end, index.getRowCount() - 1);
+		}
+
+		int capacity = Math.max(0, end - start + 1);
+		xs = new double[capacity];
+		ys = new double[capacity];
+		rowOffsets = new long[capacity];
+		rowLengths = new int[capacity];
+		count = 0;
+
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+				FileChannel channel = file.getChannel()) {
+
+			if (index == null) {
+				// -1 is the header line
+				parseRange(channel, 0, channel.size(), -1, start, end);
+				return;
+			}
+
+			int first = Math.max(0, start);
+			int last = end;
+			if (first <= last) {
+				parseRange(channel, index.getOffset(first),
+						index.getOffset(last + 1), first, start, end);
+			}
+		}
+	}
+
+	/**
+	 * Maps the bytes from position to stop and parses the rows in it that are
+	 * between start and end
+	 * 
+	 * @param channel
+	 * @param position
+	 *            where the row numbered row begins
+	 * @param stop
+	 * @param row
+	 * @param start
+	 * @param end
+	 * @throws IOException
+	 */
+	private void parseRange(FileChannel channel, long position, long stop,
+			int row, int start, int end) throws IOException {
+
+		while (position < stop && row <= end) {
+			long length = Math.min(WINDOW_SIZE, stop - position);
+			boolean lastWindow = position + length == stop;
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+					position, length);
+
+			int limit = (int) length;
+			int lineStart = 0;
+
+			while (lineStart < limit && row <= end) {
+				int lineEnd = lineStart;
+				while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+					lineEnd++;
+				}
+				if (lineEnd == limit && !lastWindow) {
+					// Line continues in the next window
+					break;
+				}
+
+				if (row >= start) {
+					parseRow(buffer, lineStart, lineEnd, position);
+				}
+				row++;
+				lineStart = lineEnd + 1;
+			}
+
+			if (lineStart == 0) {
+				throw new IOException("Line longer than " + WINDOW_SIZE
+						+ " bytes in " + fileName);
+			}
+			position += Math.min(lineStart, limit);
+		}
+	}
+
+	/**
+	 * Parses X and Y (the first two columns) of the row in
+	 * buffer[lineStart..lineEnd)
+	 * 
+	 * @param buffer
+	 * @param lineStart
+	 * @param lineEnd
+	 * @param windowPosition
+	 *            file offset of the buffer
+	 */
+	private void parseRow(ByteBuffer buffer, int lineStart, int lineEnd,
+			long windowPosition) {
+		int firstComma = indexOf(buffer, ',', lineStart, lineEnd);
+		int secondComma = indexOf(buffer, ',', firstComma + 1, lineEnd);
+
+		xs[count] = parseDouble(buffer, lineStart, firstComma);
+		ys[count] = parseDouble(buffer, firstComma + 1, secondComma);
+
+		// Do not count a windows line break as part of the row
+		int length = lineEnd - lineStart;
+		if (length > 0 && buffer.get(lineEnd - 1) == '\r') {
+			length--;
+		}
+		rowOffsets[count] = windowPosition + lineStart;
+		rowLengths[count] = length;
+		count++;
+	}
+
+	private static int indexOf(ByteBuffer buffer, char c, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (buffer.get(i) == c) {
+				return i;
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * Parses a decimal number from buffer[from..to) ignoring the white space
+	 * around it. Plain numbers with up to 18 digits and a small exponent are
+	 * converted with a single exact multiplication or division, which gives
+	 * the same result as Double.parseDouble. Anything else falls back to
+	 * Double.parseDouble
+	 * 
+	 * @param buffer
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	static double parseDouble(ByteBuffer buffer, int from, int to) {
+		while (from < to && isSpace(buffer.get(from))) {
+			from++;
+		}
+		while (to > from && isSpace(buffer.get(to - 1))) {
+			to--;
+		}
+
+		int i = from;
+		boolean negative = false;
+		if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean sawDigit = false;
+		boolean sawPoint = false;
+
+		for (; i < to; i++) {
+			byte b = buffer.get(i);
+			if (b >= '0' && b <= '9') {
+				sawDigit = true;
+				if (mantissa != 0 || b != '0') {
+					digits++;
+				}
+				mantissa = mantissa * 10 + (b - '0');
+				if (sawPoint) {
+					exponent--;
+				}
+			} else if (b == '.' && !sawPoint) {
+				sawPoint = true;
+			} else {
+				break;
+			}
+		}
+
+		if (i < to && sawDigit && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+			int j = i + 1;
+			boolean negativeExponent = false;
+			if (j < to && (buffer.get(j) == '-' || buffer.get(j) == '+')) {
+				negativeExponent = buffer.get(j) == '-';
+				j++;
+			}
+			int value = 0;
+			int start = j;
+			while (j < to && buffer.get(j) >= '0' && buffer.get(j) <= '9'
+					&& value < 10000) {
+				value = value * 10 + (buffer.get(j) - '0');
+				j++;
+			}
+			if (j > start) {
+				exponent += negativeExponent ? -value : value;
+				i = j;
+			}
+		}
+
+		if (!sawDigit || i != to || digits > 18 || mantissa >= (1L << 53)
+				|| exponent < -22 || exponent > 22) {
+			return slowParseDouble(buffer, from, to);
+		}
+
+		double value = mantissa;
+		if (exponent < 0) {
+			value = value / POWERS_OF_TEN[-exponent];
+		} else {
+			value = value * POWERS_OF_TEN[exponent];
+		}
+		return negative ? -value : value;
+	}
+
+	private static double slowParseDouble(ByteBuffer buffer, int from, int to) {
+		byte[] bytes = new byte[to - from];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(from + i);
+		}
+		return Double.parseDouble(new String(bytes, StandardCharsets.ISO_8859_1));
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+
+	/**
+	 * Decodes the text of the loaded rows. The rows are read from the file
+	 * again in one go, so only call this when the text is really needed
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	@Override
+	public String[] getRows() throws IOException {
+		String[] rows = new String[count];
+		if (count == 0) {
+			return rows;
+		}
+
+		long first = rowOffsets[0];
+		long last = rowOffsets[count - 1] + rowLengths[count - 1];
+		if (last - first > Integer.MAX_VALUE) {
+			throw new IOException("Range too large to decode in " + fileName);
+		}
+
+		byte[] bytes = new byte[(int) (last - first)];
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+			file.seek(first);
+			file.readFully(bytes);
+		}
+
+		for (int i = 0; i < count; i++) {
+			rows[i] = new String(bytes, (int) (rowOffsets[i] - first),
+					rowLengths[i], StandardCharsets.UTF_8);
+		}
+		return rows;
+	}
+
+	/**
+	 * X column of the loaded rows. The array is trimmed to the row count
+	 * 
+	 * @return
+	 */
+	@Override
+	public double[] getXs() {
+		if (xs.length != count) {
+			xs = Arrays.copyOf(xs, count);
+		}
+		return xs;
+	}
+
+	@Override
+	public double[] getYs() {
+		if (ys.length != count) {
+			ys = Arrays.copyOf(ys, count);
+		}
+		return ys;
+	}
+
+	@Override
+	public int size() {
+		return count;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+}
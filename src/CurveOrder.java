@@ -0,0 +1,140 @@
+import java.util.Arrays;
+
+/**
+ * Orders points along a space filling curve, so points that are close in the
+ * plane are mostly close in the order too. {@link PrimMST} can reorder the
+ * loaded points this way before any other stage, which keeps the neighbour
+ * scans of the later stages in nearby memory. The order on its own is also a
+ * tour, see PrimMST.getCurveTour.
+ * 
+ * The bounding box is scaled to a 65536 x 65536 grid (the same scale on both
+ * axes), every point gets the position of its grid cell on the curve and the
+ * points are sorted by it, O(n log n) in all.
+ */
+public enum CurveOrder {
+
+	/**
+	 * Keep the file order
+	 */
+	NONE,
+
+	/**
+	 * The Hilbert curve. Consecutive cells are always neighbours, so the
+	 * order has no long jumps
+	 */
+	HILBERT,
+
+	/**
+	 * The Morton (Z order) curve: the bits of x and y interleaved. Cheaper to
+	 * compute, but jumps at the borders of its quadrants
+	 */
+	MORTON;
+
+	private static final int BITS = 16;
+
+	/**
+	 * The order of the points along the curve: the k-th point on the curve is
+	 * point permutation[k]. NONE gives the identity
+	 * 
+	 * @param points
+	 * @return
+	 */
+	public int[] permutation(PointSet points) {
+		int n = points.size();
+		int[] order = new int[n];
+		if (this == NONE || n == 0) {
+			for (int i = 0; i < n; i++) {
+				order[i] = i;
+			}
+			return order;
+		}
+
+		double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, points.getX(i));
+			maxX = Math.max(maxX, points.getX(i));
+			minY = Math.min(minY, points.getY(i));
+			maxY = Math.max(maxY, points.getY(i));
+		}
+		double span = Math.max(maxX - minX, maxY - minY);
+		double scale = span > 0 ? ((1 << BITS) - 1) / span : 0;
+
+		// Curve position (32 bits) above the point number (31 bits), so one
+		// sort of plain longs orders by position
+		long[] keyed = new long[n];
+		for (int i = 0; i < n; i++) {
+			int cellX = (int) ((points.getX(i) - minX) * scale);
+			int cellY = (int) ((points.getY(i) - minY) * scale);
+			keyed[i] = key(cellX, cellY) << 31 | i;
+		}
+		Arrays.sort(keyed);
+		for (int k = 0; k < n; k++) {
+			order[k] = (int) (keyed[k] & Integer.MAX_VALUE);
+		}
+		return order;
+	}
+
+	/**
+	 * Position of a grid cell on the curve
+	 * 
+	 * @param x
+	 *            0 .. 65535
+	 * @param y
+	 *            0 .. 65535
+	 * @return
+	 */
+	public long key(int x, int y) {
+		if (this == MORTON) {
+			return spread(x) | spread(y) << 1;
+		}
+		if (this == HILBERT) {
+			return hilbert(x, y);
+		}
+		return 0;
+	}
+
+	/**
+	 * Distance along the Hilbert curve: walk down the quadrants from the
+	 * largest, rotating the coordinates into the orientation of the
+	 * sub-curve at every level
+	 * 
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	private static long hilbert(int x, int y) {
+		int side = 1 << BITS;
+		long d = 0;
+		for (int s = side >>> 1; s > 0; s >>>= 1) {
+			int rx = (x & s) != 0 ? 1 : 0;
+			int ry = (y & s) != 0 ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+			if (ry == 0) {
+				if (rx == 1) {
+					x = side - 1 - x;
+					y = side - 1 - y;
+				}
+				int temp = x;
+				x = y;
+				y = temp;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * Moves bit k of the 16 bit value to bit 2k
+	 * 
+	 * @param value
+	 * @return
+	 */
+	private static long spread(int value) {
+		long v = value & 0xffffL;
+		v = (v | v << 8) & 0x00ff00ffL;
+		v = (v | v << 4) & 0x0f0f0f0fL;
+		v = (v | v << 2) & 0x33333333L;
+		v = (v | v << 1) & 0x55555555L;
+		return v;
+	}
+}
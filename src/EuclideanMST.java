@@ -0,0 +1,341 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds the minimum spanning tree of the complete Euclidean graph over a set
+ * of points without looking at all the n^2 edges. It runs Boruvka's algorithm:
+ * in every round each component picks its shortest edge to another component,
+ * found with a nearest neighbour query in a {@link KdTree} that skips the
+ * subtrees of its own component. The number of components at least halves
+ * every round, so there are O(log n) rounds of O(n log n) queries.
+ * 
+ * The result is handed out as the same parent array that {@link PrimMST}
+ * produces. The queries of a round are independent, so they can be spread
+ * over several threads.
+ */
+public class EuclideanMST {
+
+	/**
+	 * Point sets below this size are always done on one thread
+	 */
+	static final int PARALLEL_THRESHOLD = 4096;
+
+	private double[] x;
+	private double[] y;
+	private int size;
+
+	/**
+	 * The n - 1 tree edges, filled by build()
+	 */
+	private int[] edgeFrom;
+	private int[] edgeTo;
+	private double[] edgeWeight;
+	private int edgeCount = 0;
+
+	public EuclideanMST(PointSet points) {
+		size = points.size();
+		x = points.getXs();
+		y = points.getYs();
+	}
+
+	/**
+	 * Runs the Boruvka rounds until one component is left, on the calling
+	 * thread
+	 */
+	public void build() {
+		build(1);
+	}
+
+	/**
+	 * Runs the Boruvka rounds until one component is left. The search for the
+	 * shortest edge of every component is split over the given number of
+	 * threads. Each task owns whole components, so the result is the same for
+	 * any thread count
+	 * 
+	 * @param threads
+	 */
+	public void build(int threads) {
+		edgeFrom = new int[Math.max(0, size - 1)];
+		edgeTo = new int[edgeFrom.length];
+		edgeWeight = new double[edgeFrom.length];
+		edgeCount = 0;
+
+		KdTree tree = new KdTree(x, y, size);
+		int[] nodeComponent = new int[tree.getNodeCount()];
+
+		// Union-find over the points. component[] is the flattened copy used
+		// by the queries
+		int[] unionParent = new int[size];
+		int[] component = new int[size];
+		for (int i = 0; i < size; i++) {
+			unionParent[i] = i;
+			component[i] = i;
+		}
+
+		double[] compBest = new double[size];
+		int[] compFrom = new int[size];
+		int[] compTo = new int[size];
+
+		// The members of every component, grouped by component
+		int[] roots = new int[size];
+		int[] memberStart = new int[size + 1];
+		int[] members = new int[size];
+		int[] slot = new int[size];
+
+		ForkJoinPool pool = threads > 1 && size >= PARALLEL_THRESHOLD ? new ForkJoinPool(
+				threads) : null;
+		try {
+			while (edgeCount < size - 1) {
+				tree.updateNodeComponents(component, nodeComponent);
+
+				int rootCount = groupMembers(component, roots, memberStart,
+						members, slot);
+				for (int r = 0; r < rootCount; r++) {
+					compBest[roots[r]] = Double.POSITIVE_INFINITY;
+					compTo[roots[r]] = -1;
+				}
+
+				ComponentTask task = new ComponentTask(tree, component,
+						nodeComponent, roots, memberStart, members, compBest,
+						compFrom, compTo, 0, rootCount);
+				if (pool == null) {
+					task.compute();
+				} else {
+					pool.invoke(task);
+				}
+
+				for (int r = 0; r < rootCount; r++) {
+					int c = roots[r];
+					if (compTo[c] == -1) {
+						continue;
+					}
+					int a = find(unionParent, compFrom[c]);
+					int b = find(unionParent, compTo[c]);
+					// Both components may have picked the same edge
+					if (a != b) {
+						unionParent[a] = b;
+						edgeFrom[edgeCount] = compFrom[c];
+						edgeTo[edgeCount] = compTo[c];
+						edgeWeight[edgeCount] = Math.sqrt(compBest[c]);
+						edgeCount++;
+					}
+				}
+
+				for (int i = 0; i < size; i++) {
+					component[i] = find(unionParent, i);
+				}
+			}
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Counting sort of the points by component. Fills roots with the
+	 * component ids in increasing order and members with the points of
+	 * roots[r] at memberStart[r] .. memberStart[r + 1] - 1
+	 * 
+	 * @return the number of components
+	 */
+	private int groupMembers(int[] component, int[] roots, int[] memberStart,
+			int[] members, int[] slot) {
+		int rootCount = 0;
+		for (int i = 0; i < size; i++) {
+			if (component[i] == i) {
+				slot[i] = rootCount;
+				roots[rootCount++] = i;
+			}
+		}
+
+		for (int r = 0; r <= rootCount; r++) {
+			memberStart[r] = 0;
+		}
+		for (int i = 0; i < size; i++) {
+			memberStart[slot[component[i]] + 1]++;
+		}
+		for (int r = 0; r < rootCount; r++) {
+			memberStart[r + 1] += memberStart[r];
+		}
+
+		// slot[] turns into the next free place of each component
+		for (int r = 0; r < rootCount; r++) {
+			slot[roots[r]] = memberStart[r];
+		}
+		for (int i = 0; i < size; i++) {
+			members[slot[component[i]]++] = i;
+		}
+		return rootCount;
+	}
+
+	/**
+	 * Finds the shortest edge leaving each of the components roots[from] ..
+	 * roots[to - 1]. The best edge found so far for a component is used as
+	 * the bound of the next query. Splits itself in two while it has more
+	 * than one component and enough points
+	 */
+	private static class ComponentTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Tasks with fewer points than this do not split
+		 */
+		private static final int MIN_POINTS = 1024;
+
+		private final KdTree tree;
+		private final int[] component;
+		private final int[] nodeComponent;
+		private final int[] roots;
+		private final int[] memberStart;
+		private final int[] members;
+		private final double[] compBest;
+		private final int[] compFrom;
+		private final int[] compTo;
+		private final int from;
+		private final int to;
+
+		ComponentTask(KdTree tree, int[] component, int[] nodeComponent,
+				int[] roots, int[] memberStart, int[] members,
+				double[] compBest, int[] compFrom, int[] compTo, int from,
+				int to) {
+			this.tree = tree;
+			this.component = component;
+			this.nodeComponent = nodeComponent;
+			this.roots = roots;
+			this.memberStart = memberStart;
+			this.members = members;
+			this.compBest = compBest;
+			this.compFrom = compFrom;
+			this.compTo = compTo;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (getPool() != null && to - from > 1
+					&& memberStart[to] - memberStart[from] > MIN_POINTS) {
+				// Cut where half of the points are on each side
+				int half = (memberStart[from] + memberStart[to]) >>> 1;
+				int middle = from + 1;
+				while (middle < to - 1 && memberStart[middle] < half) {
+					middle++;
+				}
+				invokeAll(split(from, middle), split(middle, to));
+				return;
+			}
+
+			double[] best = new double[1];
+			for (int r = from; r < to; r++) {
+				int c = roots[r];
+				for (int k = memberStart[r]; k < memberStart[r + 1]; k++) {
+					int p = members[k];
+					best[0] = compBest[c];
+					int q = tree.nearestOutside(p, component, nodeComponent,
+							best);
+					if (q != -1) {
+						compBest[c] = best[0];
+						compFrom[c] = p;
+						compTo[c] = q;
+					}
+				}
+			}
+		}
+
+		private ComponentTask split(int newFrom, int newTo) {
+			return new ComponentTask(tree, component, nodeComponent, roots,
+					memberStart, members, compBest, compFrom, compTo, newFrom,
+					newTo);
+		}
+	}
+
+	/**
+	 * Union-find root with path halving
+	 * 
+	 * @param unionParent
+	 * @param i
+	 * @return
+	 */
+	private static int find(int[] unionParent, int i) {
+		while (unionParent[i] != i) {
+			unionParent[i] = unionParent[unionParent[i]];
+			i = unionParent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Hangs the tree from the root and returns the parent array. parent[root]
+	 * is the root itself
+	 * 
+	 * @param root
+	 * @param distance
+	 *            if not null, receives the weight of the edge to the parent
+	 * @return
+	 */
+	public int[] getParent(int root, double[] distance) {
+		// Adjacency lists of the tree in compressed form
+		int[] adjStart = new int[size + 1];
+		for (int e = 0; e < edgeCount; e++) {
+			adjStart[edgeFrom[e] + 1]++;
+			adjStart[edgeTo[e] + 1]++;
+		}
+		for (int i = 0; i < size; i++) {
+			adjStart[i + 1] += adjStart[i];
+		}
+		int[] fill = adjStart.clone();
+		int[] adjEdge = new int[2 * edgeCount];
+		for (int e = 0; e < edgeCount; e++) {
+			adjEdge[fill[edgeFrom[e]]++] = e;
+			adjEdge[fill[edgeTo[e]]++] = e;
+		}
+
+		int[] parent = new int[size];
+		boolean[] visited = new boolean[size];
+		int[] queue = new int[size];
+		int head = 0, tail = 0;
+
+		parent[root] = root;
+		visited[root] = true;
+		queue[tail++] = root;
+		if (distance != null) {
+			distance[root] = 0.0;
+		}
+
+		while (head < tail) {
+			int v = queue[head++];
+			for (int k = adjStart[v]; k < adjStart[v + 1]; k++) {
+				int e = adjEdge[k];
+				int w = edgeFrom[e] == v ? edgeTo[e] : edgeFrom[e];
+				if (!visited[w]) {
+					visited[w] = true;
+					parent[w] = v;
+					if (distance != null) {
+						distance[w] = edgeWeight[e];
+					}
+					queue[tail++] = w;
+				}
+			}
+		}
+		return parent;
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	/**
+	 * Total weight of the tree
+	 * 
+	 * @return
+	 */
+	public double getWeight() {
+		double sum = 0.0;
+		for (int e = 0; e < edgeCount; e++) {
+			sum += edgeWeight[e];
+		}
+		return sum;
+	}
+}
@@ -1,16 +1,42 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /**
  * This class implements the Graph ADT. The graph implemented below would be an
  * undirected and with unweighed edges
  * 
+ * The weights are kept as a double[][] matrix by default. With the FLOAT or
+ * OFF_HEAP {@link MatrixStorage} only the cells above the diagonal are kept,
+ * as floats, in one flat array or buffer, which takes a quarter of the
+ * memory. Read the weights through getWeight or getRow, getAdjMatrix only
+ * exists for the DOUBLE storage
+ * 
  * @author Nikhil
  * 
  */
-public class Graph {
+public class Graph implements WeightedGraph {
 
 	private int vertices;
+	/**
+	 * Number of undirected edges currently in the graph
+	 */
+	private long edges;
 	double[][] adjMatrix;
 	int[] labels;
 
+	private MatrixStorage storage = MatrixStorage.DOUBLE;
+
+	/**
+	 * The FLOAT and OFF_HEAP storage: the cells above the diagonal, row after
+	 * row, see cell(). Only one of them is used
+	 */
+	private float[] packed;
+	private FloatBuffer packedBuffer;
+
 	/**
 	 * The constructor asks for the number of vertices in the graph and creates
 	 * an adjacency matrix and labels array
@@ -18,14 +44,221 @@ public class Graph {
 	 * @param v
 	 */
 	Graph(int v) {
+		this(v, MatrixStorage.DOUBLE, true);
+	}
+
+	/**
+	 * A graph without edges that keeps its weights in the given storage
+	 * 
+	 * @param v
+	 * @param storage
+	 */
+	Graph(int v, MatrixStorage storage) {
+		this(v, storage, true);
+	}
+
+	/**
+	 * Rows below this count are filled by a single thread
+	 */
+	private static final int PARALLEL_THRESHOLD = 256;
+
+	/**
+	 * Builds the complete graph over a point set with the Euclidean distances
+	 * as weights. Every distance is computed once and written to its two
+	 * cells, nothing is filled with infinity first except the diagonal. The
+	 * rows are split over a fork join pool
+	 * 
+	 * @param points
+	 * @param threads
+	 * @return
+	 */
+	public static Graph completeGraph(PointSet points, int threads) {
+		return completeGraph(points, threads, MatrixStorage.DOUBLE, null);
+	}
+
+	/**
+	 * Same as completeGraph(points, threads) but with the given storage, and
+	 * refills the matrix of reuse in place when it has the right number of
+	 * vertices and the same storage
+	 * 
+	 * @param points
+	 * @param threads
+	 * @param storage
+	 * @param reuse
+	 *            a graph that is not needed any more, or null
+	 * @return
+	 */
+	public static Graph completeGraph(PointSet points, int threads,
+			MatrixStorage storage, Graph reuse) {
+		final int v = points.size();
+		final Graph graph = reuse != null && reuse.vertices == v
+				&& reuse.storage == storage ? reuse : new Graph(v, storage,
+				false);
+
+		RowPairTask task = new RowPairTask(graph, points, 0, (v + 1) / 2);
+		if (threads <= 1 || v < PARALLEL_THRESHOLD) {
+			task.compute();
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				pool.invoke(task);
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		graph.edges = cellCount(v);
+		return graph;
+	}
+
+	/**
+	 * Creates the matrix, and only writes infinity into it when the caller is
+	 * not going to fill every cell anyway
+	 * 
+	 * @param v
+	 * @param storage
+	 * @param fill
+	 */
+	private Graph(int v, MatrixStorage storage, boolean fill) {
 		vertices = v;
-		adjMatrix = new double[v][v];
+		this.storage = storage;
 		labels = new int[v];
 
-		for (int i = 0; i < v; i++) {
-			for (int j = 0; j < v; j++) {
-				addEdge(i, j, Double.POSITIVE_INFINITY);
-				addEdge(j, i, Double.POSITIVE_INFINITY);
+		long cells = cellCount(v);
+		if (storage == MatrixStorage.DOUBLE) {
+			adjMatrix = new double[v][v];
+			if (fill) {
+				for (int i = 0; i < v; i++) {
+					Arrays.fill(adjMatrix[i], Double.POSITIVE_INFINITY);
+				}
+			}
+		} else if (storage == MatrixStorage.FLOAT) {
+			if (cells > Integer.MAX_VALUE - 8) {
+				throw new IllegalArgumentException(v
+						+ " vertices are too many for the FLOAT storage");
+			}
+			packed = new float[(int) cells];
+			if (fill) {
+				Arrays.fill(packed, Float.POSITIVE_INFINITY);
+			}
+		} else {
+			if (cells * 4 > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException(v
+						+ " vertices are too many for the OFF_HEAP storage");
+			}
+			packedBuffer = ByteBuffer.allocateDirect((int) cells * 4)
+					.order(ByteOrder.nativeOrder()).asFloatBuffer();
+			if (fill) {
+				for (int k = 0; k < cells; k++) {
+					packedBuffer.put(k, Float.POSITIVE_INFINITY);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Number of cells above the diagonal, which is the number of vertex pairs
+	 * 
+	 * @param v
+	 * @return
+	 */
+	private static long cellCount(int v) {
+		return (long) v * (v - 1) / 2;
+	}
+
+	/**
+	 * Position of the pair i, j (i < j) in the packed storage. Row i starts
+	 * after the v - 1, v - 2, ..., v - i cells of the rows above it
+	 * 
+	 * @param i
+	 * @param j
+	 * @return
+	 */
+	private int cell(int i, int j) {
+		return (int) ((long) i * (2L * vertices - i - 1) / 2 + (j - i - 1));
+	}
+
+	/**
+	 * Fills the upper triangle of rows i and v - 1 - i for every i in
+	 * [from, to). In the double matrix every value is mirrored into the lower
+	 * triangle, the packed storage only has the upper one. Row i has
+	 * v - 1 - i cells right of the diagonal, so pairing a short row with a
+	 * long one gives every pair the same amount of work and the range can be
+	 * cut in the middle
+	 */
+	private static class RowPairTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Row pairs per task below which the task does not split further
+		 */
+		private static final int MIN_PAIRS = 16;
+
+		private final Graph graph;
+		private final PointSet points;
+		private final int from;
+		private final int to;
+
+		RowPairTask(Graph graph, PointSet points, int from, int to) {
+			this.graph = graph;
+			this.points = points;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > MIN_PAIRS && getPool() != null) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new RowPairTask(graph, points, from, middle),
+						new RowPairTask(graph, points, middle, to));
+				return;
+			}
+
+			int v = graph.vertices;
+			for (int i = from; i < to; i++) {
+				fillRow(i);
+				if (v - 1 - i != i) {
+					fillRow(v - 1 - i);
+				}
+			}
+		}
+
+		private void fillRow(int i) {
+			double[] xs = points.getXs();
+			double[] ys = points.getYs();
+			double x = xs[i];
+			double y = ys[i];
+			int v = graph.vertices;
+
+			if (graph.adjMatrix != null) {
+				double[][] matrix = graph.adjMatrix;
+				double[] row = matrix[i];
+				row[i] = Double.POSITIVE_INFINITY;
+				for (int j = i + 1; j < v; j++) {
+					double dx = xs[j] - x;
+					double dy = ys[j] - y;
+					double weight = Math.sqrt(dx * dx + dy * dy);
+					row[j] = weight;
+					matrix[j][i] = weight;
+				}
+				return;
+			}
+
+			// The cells of row i right of the diagonal are consecutive
+			int base = i + 1 < v ? graph.cell(i, i + 1) - (i + 1) : 0;
+			float[] packed = graph.packed;
+			FloatBuffer buffer = graph.packedBuffer;
+			for (int j = i + 1; j < v; j++) {
+				double dx = xs[j] - x;
+				double dy = ys[j] - y;
+				float weight = (float) Math.sqrt(dx * dx + dy * dy);
+				if (packed != null) {
+					packed[base + j] = weight;
+				} else {
+					buffer.put(base + j, weight);
+				}
 			}
 		}
 	}
@@ -38,8 +271,37 @@ public class Graph {
 	 * @param j
 	 */
 	public void addEdge(int i, int j, double weight) {
-		adjMatrix[i][j] = weight;
-		adjMatrix[j][i] = weight;
+		boolean wasEdge = isEdge(i, j);
+		boolean isEdge = weight != Double.POSITIVE_INFINITY;
+		if (wasEdge != isEdge) {
+			edges += isEdge ? 1 : -1;
+		}
+		setWeight(i, j, weight);
+	}
+
+	/**
+	 * Writes the weight of the pair into the storage
+	 * 
+	 * @param i
+	 * @param j
+	 * @param weight
+	 */
+	private void setWeight(int i, int j, double weight) {
+		if (adjMatrix != null) {
+			adjMatrix[i][j] = weight;
+			adjMatrix[j][i] = weight;
+			return;
+		}
+		if (i == j) {
+			throw new IllegalArgumentException(
+					"The packed storage has no self loops");
+		}
+		int k = i < j ? cell(i, j) : cell(j, i);
+		if (packed != null) {
+			packed[k] = (float) weight;
+		} else {
+			packedBuffer.put(k, (float) weight);
+		}
 	}
 
 	/**
@@ -50,7 +312,7 @@ public class Graph {
 	 * @return
 	 */
 	public boolean isEdge(int i, int j) {
-		return (adjMatrix[i][j] != Double.POSITIVE_INFINITY) ? true : false;
+		return (getWeight(i, j) != Double.POSITIVE_INFINITY) ? true : false;
 	}
 
 	/**
@@ -60,14 +322,72 @@ public class Graph {
 	 * @param j
 	 */
 	public void removeEdge(int i, int j) {
-		adjMatrix[i][j] = Double.POSITIVE_INFINITY;
-		adjMatrix[j][i] = Double.POSITIVE_INFINITY;
+		if (isEdge(i, j)) {
+			edges--;
+			setWeight(i, j, Double.POSITIVE_INFINITY);
+		}
 	}
 
+	/**
+	 * The raw matrix of the DOUBLE storage. Prefer getWeight and getRow, which
+	 * work for every storage
+	 * 
+	 * @return
+	 * @throws UnsupportedOperationException
+	 *             for the packed storage
+	 */
 	public double[][] getAdjMatrix() {
+		if (adjMatrix == null) {
+			throw new UnsupportedOperationException(storage
+					+ " storage has no double[][] matrix");
+		}
 		return adjMatrix;
 	}
 
+	/**
+	 * The weights of row i, infinity for missing edges and the diagonal. For
+	 * the DOUBLE storage this is the row of the matrix itself, otherwise the
+	 * row is copied into buffer. Either way it must not be changed
+	 * 
+	 * @param i
+	 * @param buffer
+	 *            room for getSize() weights
+	 * @return
+	 */
+	public double[] getRow(int i, double[] buffer) {
+		if (adjMatrix != null) {
+			return adjMatrix[i];
+		}
+
+		// Column i of the rows above: the cell of (j, i) moves on by
+		// v - j - 2 from one j to the next
+		int k = i - 1;
+		for (int j = 0; j < i; j++) {
+			buffer[j] = packed != null ? packed[k] : packedBuffer.get(k);
+			k += vertices - j - 2;
+		}
+		buffer[i] = Double.POSITIVE_INFINITY;
+		k = i + 1 < vertices ? cell(i, i + 1) : 0;
+		for (int j = i + 1; j < vertices; j++, k++) {
+			buffer[j] = packed != null ? packed[k] : packedBuffer.get(k);
+		}
+		return buffer;
+	}
+
+	public MatrixStorage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * Bytes taken by the weights (without object headers)
+	 * 
+	 * @return
+	 */
+	public long getWeightBytes() {
+		return adjMatrix != null ? 8L * vertices * vertices
+				: 4 * cellCount(vertices);
+	}
+
 	/**
 	 * Get all the neighbors for a given vertex
 	 * 
@@ -80,7 +400,7 @@ public class Graph {
 
 		// Count number of neighbors first
 		for (int i = 0; i < vertices; i++) {
-			if (adjMatrix[vertex][i] != Double.POSITIVE_INFINITY) {
+			if (isEdge(vertex, i)) {
 				count++;
 			}
 		}
@@ -89,7 +409,7 @@ public class Graph {
 		count = 0;
 
 		for (int i = 0; i < vertices; i++) {
-			if (adjMatrix[vertex][i] != Double.POSITIVE_INFINITY) {
+			if (isEdge(vertex, i)) {
 				neighborArray[count] = i;
 				count++;
 			}
@@ -97,10 +417,54 @@ public class Graph {
 		return neighborArray;
 	}
 
+	/**
+	 * Copies the neighbours of a row without allocating, see
+	 * {@link WeightedGraph}
+	 */
+	public int getNeighbours(int vertex, int[] targets, double[] weights) {
+		int count = 0;
+		for (int i = 0; i < vertices; i++) {
+			double weight = getWeight(vertex, i);
+			if (weight != Double.POSITIVE_INFINITY) {
+				targets[count] = i;
+				weights[count++] = weight;
+			}
+		}
+		return count;
+	}
+
+	public double getWeight(int i, int j) {
+		if (adjMatrix != null) {
+			return adjMatrix[i][j];
+		}
+		if (i == j) {
+			return Double.POSITIVE_INFINITY;
+		}
+		int k = i < j ? cell(i, j) : cell(j, i);
+		return packed != null ? packed[k] : packedBuffer.get(k);
+	}
+
 	public int getSize() {
 		return vertices;
 	}
 
+	public long getEdgeCount() {
+		return edges;
+	}
+
+	/**
+	 * Fraction of all possible vertex pairs that are joined by an edge. A
+	 * complete graph has a density of 1
+	 * 
+	 * @return
+	 */
+	public double getDensity() {
+		if (vertices < 2) {
+			return 1.0;
+		}
+		return (double) edges / cellCount(vertices);
+	}
+
 	/**
 	 * This method is used to print the adjacency matrix. This method does not
 	 * print the unused part of the matrix
@@ -113,7 +477,7 @@ public class Graph {
 		for (int i = 0; i < vertices; i++) {
 
 			for (int j = 0; j < vertices; j++) {
-				if (adjMatrix[i][j] != Double.POSITIVE_INFINITY) {
+				if (isEdge(i, j)) {
 
 					countY = i;
 
@@ -130,8 +494,8 @@ public class Graph {
 
 		for (int i = 0; i <= effectiveVertices; i++) {
 			for (int j = 0; j <= effectiveVertices; j++) {
-				if (adjMatrix[i][j] != Double.POSITIVE_INFINITY) {
-					System.out.print(adjMatrix[i][j] + " ");
+				if (isEdge(i, j)) {
+					System.out.print(getWeight(i, j) + " ");
 				} else {
 					System.out.print(-1 + " ");
 				}
@@ -140,30 +504,17 @@ public class Graph {
 		}
 	}
 
-	// Add traversal BFS-DFS methods if time permits
-
+	/**
+	 * Prints the vertices reachable from vertex in breadth first order, see
+	 * {@link GraphSearch}
+	 * 
+	 * @param vertex
+	 */
 	public void breadthFirstSearch(int vertex) {
-		boolean[] markerArray = new boolean[vertices];
-		Queue queue = new Queue();
-
-		queue.enQueue(vertex);
-
-		while (!queue.isEmpty()) {
-
-			int vertexNum;
-			vertexNum = (int) queue.deQueue();
-			if (markerArray[vertexNum] == false) {
-				System.out.println(vertexNum);
-				markerArray[vertex] = true;
-			}
-
-			int[] neighbours = getNeighbours(vertexNum);
-
-			for (int i = 0; i < neighbours.length; i++) {
-				queue.enQueue(neighbours[i]);
-			}
+		int[] order = GraphSearch.breadthFirstSearch(this, vertex);
+		for (int i = 0; i < order.length; i++) {
+			System.out.println(order[i]);
 		}
-
 	}
 }
 
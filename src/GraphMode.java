@@ -0,0 +1,24 @@
+/**
+ * Decides how the edge weights of the complete TSP graph are made available
+ * to the MST code in {@link PrimMST}
+ */
+public enum GraphMode {
+
+	/**
+	 * No matrix is built. Distances are computed from the points whenever an
+	 * edge is looked at. Needs O(n) memory, so it works for large ranges
+	 */
+	IMPLICIT,
+
+	/**
+	 * The old behaviour: a {@link Graph} with an n x n adjacency matrix. Needs
+	 * O(n^2) memory and should only be used for small ranges
+	 */
+	MATRIX,
+
+	/**
+	 * A {@link KnnGraph}: only the edges to the k nearest neighbours of every
+	 * point, O(n k) memory. The MST is then taken over these candidate edges
+	 */
+	KNN
+}
@@ -0,0 +1,92 @@
+/**
+ * Traversals that work on any {@link WeightedGraph}
+ */
+public class GraphSearch {
+
+	private GraphSearch() {
+	}
+
+	/**
+	 * Breadth first search from a vertex. Vertices are marked when they are
+	 * queued, so each one is queued once
+	 * 
+	 * @param graph
+	 * @param vertex
+	 * @return the vertices reachable from vertex, in the order they are
+	 *         visited
+	 */
+	public static int[] breadthFirstSearch(WeightedGraph graph, int vertex) {
+		int size = graph.getSize();
+		boolean[] marked = new boolean[size];
+		int[] order = new int[size];
+		int[] targets = new int[Math.max(0, size - 1)];
+		double[] weights = new double[targets.length];
+		int count = label(graph, vertex, marked, order, targets, weights,
+				null, 0);
+		return java.util.Arrays.copyOf(order, count);
+	}
+
+	/**
+	 * Labels the connected components of the graph
+	 * 
+	 * @param graph
+	 * @param component
+	 *            gets the component number of every vertex, 0 .. count - 1
+	 * @return number of components
+	 */
+	public static int components(WeightedGraph graph, int[] component) {
+		int size = graph.getSize();
+		boolean[] marked = new boolean[size];
+		int[] queue = new int[size];
+		int[] targets = new int[Math.max(0, size - 1)];
+		double[] weights = new double[targets.length];
+		int count = 0;
+		for (int v = 0; v < size; v++) {
+			if (!marked[v]) {
+				label(graph, v, marked, queue, targets, weights, component,
+						count++);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * The breadth first search behind both methods above
+	 * 
+	 * @param graph
+	 * @param vertex
+	 * @param marked
+	 * @param queue
+	 *            gets the visited vertices in order
+	 * @param targets
+	 * @param weights
+	 *            room for the neighbours of a vertex
+	 * @param component
+	 *            null, or gets the label of every visited vertex
+	 * @param label
+	 * @return number of vertices visited
+	 */
+	private static int label(WeightedGraph graph, int vertex,
+			boolean[] marked, int[] queue, int[] targets, double[] weights,
+			int[] component, int label) {
+		int head = 0, tail = 0;
+		marked[vertex] = true;
+		queue[tail++] = vertex;
+
+		while (head < tail) {
+			int vertexNum = queue[head++];
+			if (component != null) {
+				component[vertexNum] = label;
+			}
+
+			int count = graph.getNeighbours(vertexNum, targets, weights);
+			for (int i = 0; i < count; i++) {
+				if (!marked[targets[i]]) {
+					marked[targets[i]] = true;
+					queue[tail++] = targets[i];
+				}
+			}
+		}
+		return tail;
+	}
+}
@@ -0,0 +1,413 @@
+import java.util.Random;
+
+/**
+ * Compares the priority queues Prim can use: the d-ary {@link PriorityQueue}
+ * for a few arities, the {@link PairingHeap} and the binary heap the d-ary
+ * heap replaced (kept below as LegacyPriorityQueue). Three workloads, one per
+ * graph type:
+ * 
+ * <pre>
+ * complete  Prim over the complete graph of random points, mostly reduce-keys
+ * knn       Prim over the k nearest neighbour graph of random points, about
+ *           as many reduce-keys as deleteMins
+ * sort      a heap sort, inserts followed by deleteMins
+ * </pre>
+ * 
+ * Keys are random doubles so the legacy heap, which loops forever on equal
+ * keys, can run.
+ * 
+ * Run it with "mvn -Pbench -Dbench.main=HeapBenchmark compile exec:java" or
+ * straight from the class files. Arguments (all optional):
+ * 
+ * <pre>
+ * -complete 1000,5000      point counts of the complete graph workload
+ * -knn 100000,1000000      point counts of the knn graph workload
+ * -k 8                     neighbours per point
+ * -sort 100000,1000000     key counts of the heap sort workload
+ * -warmup 3 -runs 5
+ * </pre>
+ */
+public class HeapBenchmark {
+
+	private static int[] completeSizes = { 1000, 5000 };
+	private static int[] knnSizes = { 100000, 1000000 };
+	private static int k = 8;
+	private static int[] sortSizes = { 100000, 1000000 };
+	private static int[] arities = { 2, 4, 8 };
+	private static int warmup = 3;
+	private static int runs = 5;
+
+	/**
+	 * Results go here so the work can not be optimized away
+	 */
+	private static volatile double sink;
+
+	/**
+	 * A workload run on one heap implementation
+	 */
+	private static abstract class Workload {
+		final String name;
+
+		Workload(String name) {
+			this.name = name;
+		}
+
+		abstract double run();
+	}
+
+	public static void main(String[] args) {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-complete")) {
+				completeSizes = parseSizes(args[i + 1]);
+			} else if (args[i].equals("-knn")) {
+				knnSizes = parseSizes(args[i + 1]);
+			} else if (args[i].equals("-k")) {
+				k = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("-sort")) {
+				sortSizes = parseSizes(args[i + 1]);
+			} else if (args[i].equals("-warmup")) {
+				warmup = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("-runs")) {
+				runs = Integer.parseInt(args[i + 1]);
+			}
+		}
+
+		System.out.printf("%-9s %8s  %-12s %12s %12s%n", "graph", "n",
+				"heap", "mean ms", "min ms");
+		for (int n : completeSizes) {
+			final PointSet points = randomPoints(n);
+
+			time("complete", n, new Workload("legacy") {
+				double run() {
+					return legacyPrim(points);
+				}
+			});
+			for (final int arity : arities) {
+				time("complete", n, new Workload(arity + "-ary") {
+					double run() {
+						return prim(points, new PriorityQueue(points.size(),
+								arity));
+					}
+				});
+			}
+			time("complete", n, new Workload("pairing") {
+				double run() {
+					return prim(points, new PairingHeap(points.size()));
+				}
+			});
+		}
+
+		for (int n : knnSizes) {
+			final KnnGraph graph = KnnGraph.build(randomPoints(n), k, 1);
+			for (final QueueType type : QueueType.values()) {
+				String name = type == QueueType.DARY ? "4-ary" : "pairing";
+				time("knn", n, new Workload(name) {
+					double run() {
+						return prim(graph, type.create(graph.getSize()));
+					}
+				});
+			}
+		}
+
+		for (int n : sortSizes) {
+			final double[] keys = new double[n];
+			Random random = new Random(n);
+			for (int i = 0; i < n; i++) {
+				keys[i] = random.nextDouble();
+			}
+
+			time("sort", n, new Workload("legacy") {
+				double run() {
+					LegacyPriorityQueue heap = new LegacyPriorityQueue(
+							keys.length);
+					for (int i = 0; i < keys.length; i++) {
+						heap.insert(i, keys[i]);
+					}
+					double sum = 0;
+					while (!heap.isEmpty()) {
+						sum += heap.deleteMin();
+					}
+					return sum;
+				}
+			});
+			for (final int arity : arities) {
+				time("sort", n, new Workload(arity + "-ary") {
+					double run() {
+						PriorityQueue heap = new PriorityQueue(keys.length,
+								arity);
+						for (int i = 0; i < keys.length; i++) {
+							heap.insert(i, keys[i]);
+						}
+						double sum = 0;
+						while (!heap.isEmpty()) {
+							sum += heap.deleteMin();
+						}
+						return sum;
+					}
+				});
+			}
+		}
+		System.out.println("(sink " + sink + ")");
+	}
+
+	private static int[] parseSizes(String text) {
+		String[] parts = text.split(",");
+		int[] values = new int[parts.length];
+		for (int k = 0; k < parts.length; k++) {
+			values[k] = Integer.parseInt(parts[k].trim());
+		}
+		return values;
+	}
+
+	private static void time(String work, int n, Workload workload) {
+		for (int i = 0; i < warmup; i++) {
+			sink += workload.run();
+		}
+
+		long total = 0, min = Long.MAX_VALUE;
+		for (int i = 0; i < runs; i++) {
+			long time = System.nanoTime();
+			sink += workload.run();
+			time = System.nanoTime() - time;
+			total += time;
+			min = Math.min(min, time);
+		}
+		System.out.printf("%-9s %8d  %-12s %12.3f %12.3f%n", work, n,
+				workload.name, total / 1e6 / runs, min / 1e6);
+	}
+
+	private static PointSet randomPoints(int n) {
+		Random random = new Random(n);
+		double[] x = new double[n];
+		double[] y = new double[n];
+		PipelineBenchmark.uniform(random, x, y);
+		return new PointSet(x, y);
+	}
+
+	/**
+	 * Prim over the compressed lists of a {@link KnnGraph}
+	 * 
+	 * @param graph
+	 * @param heap
+	 * @return weight of the tree
+	 */
+	private static double prim(KnnGraph graph, IndexedMinQueue heap) {
+		int[] offsets = graph.getOffsets();
+		int[] targets = graph.getTargets();
+		float[] weights = graph.getWeights();
+		int size = graph.getSize();
+		double[] distance = new double[size];
+		boolean[] marked = new boolean[size];
+		java.util.Arrays.fill(distance, Double.POSITIVE_INFINITY);
+
+		double weight = 0;
+		distance[0] = 0;
+		heap.insert(0, 0);
+		while (!heap.isEmpty()) {
+			int vertex = heap.deleteMin();
+			marked[vertex] = true;
+			weight += distance[vertex];
+			for (int e = offsets[vertex]; e < offsets[vertex + 1]; e++) {
+				int i = targets[e];
+				if (marked[i]) {
+					continue;
+				}
+				double d = weights[e];
+				if (d < distance[i]) {
+					distance[i] = d;
+					if (heap.contains(i)) {
+						heap.reduceKey(i, d);
+					} else {
+						heap.insert(i, d);
+					}
+				}
+			}
+		}
+		return weight;
+	}
+
+	/**
+	 * Prim over the complete graph of the points with squared distances as
+	 * keys, the same loop as PrimMST.visitImplicit
+	 * 
+	 * @param points
+	 * @param heap
+	 * @return weight of the tree (squared)
+	 */
+	private static double prim(PointSet points, IndexedMinQueue heap) {
+		int size = points.size();
+		double[] distance = new double[size];
+		boolean[] marked = new boolean[size];
+		java.util.Arrays.fill(distance, Double.POSITIVE_INFINITY);
+
+		double weight = 0;
+		distance[0] = 0;
+		heap.insert(0, 0);
+		while (!heap.isEmpty()) {
+			int vertex = heap.deleteMin();
+			marked[vertex] = true;
+			weight += distance[vertex];
+			for (int i = 0; i < size; i++) {
+				if (marked[i]) {
+					continue;
+				}
+				double d = points.squaredDistance(vertex, i);
+				if (d < distance[i]) {
+					distance[i] = d;
+					if (heap.contains(i)) {
+						heap.reduceKey(i, d);
+					} else {
+						heap.insert(i, d);
+					}
+				}
+			}
+		}
+		return weight;
+	}
+
+	/**
+	 * The same Prim loop on the legacy heap
+	 * 
+	 * @param points
+	 * @return
+	 */
+	private static double legacyPrim(PointSet points) {
+		int size = points.size();
+		double[] distance = new double[size];
+		boolean[] marked = new boolean[size];
+		java.util.Arrays.fill(distance, Double.POSITIVE_INFINITY);
+		LegacyPriorityQueue heap = new LegacyPriorityQueue(size);
+
+		double weight = 0;
+		distance[0] = 0;
+		heap.insert(0, 0);
+		while (!heap.isEmpty()) {
+			int vertex = heap.deleteMin();
+			marked[vertex] = true;
+			weight += distance[vertex];
+			for (int i = 0; i < size; i++) {
+				if (marked[i]) {
+					continue;
+				}
+				double d = points.squaredDistance(vertex, i);
+				if (d < distance[i]) {
+					distance[i] = d;
+					if (heap.contains(i)) {
+						heap.reduceKey(i, d);
+					} else {
+						heap.insert(i, d);
+					}
+				}
+			}
+		}
+		return weight;
+	}
+
+	/**
+	 * The binary heap PriorityQueue was before it became d-ary, unchanged
+	 * apart from the counters. Its parent of slot i is i / 2 instead of
+	 * (i - 1) / 2 and heapifyDown does not end on equal keys, so it is only
+	 * fit for this comparison
+	 */
+	private static class LegacyPriorityQueue {
+
+		private int limit;
+		private int currSize = -1;
+		private int[] pq;
+		private double[] keys;
+		private int[] indexLocOnHeap;
+
+		LegacyPriorityQueue(int limit) {
+			this.limit = limit;
+			pq = new int[limit];
+			keys = new double[limit];
+			indexLocOnHeap = new int[limit];
+
+			for (int i = 0; i < limit; i++) {
+				indexLocOnHeap[i] = -1;
+			}
+		}
+
+		void insert(int i, double value) {
+			currSize++;
+			if (!isFull()) {
+				pq[currSize] = i;
+				indexLocOnHeap[i] = currSize;
+				keys[i] = value;
+				heapifyUp(currSize);
+			}
+		}
+
+		private void heapifyUp(int index) {
+			if (index >= 0) {
+				while (index >= 0
+						&& keys[pq[index]] < keys[pq[getParent(index)]]) {
+					swap(index, getParent(index));
+					index = getParent(index);
+				}
+			}
+		}
+
+		private void heapifyDown(int index) {
+			if (index >= 0) {
+				while (2 * index + 1 <= currSize) {
+					int left = 2 * index + 1;
+					int right = 2 * index + 2;
+					int switchWith = left;
+					if (left < currSize && (keys[pq[left]] > keys[pq[right]])) {
+						switchWith = right;
+					}
+					if (keys[pq[index]] > keys[pq[switchWith]]) {
+						swap(index, switchWith);
+						index = switchWith;
+					} else if (keys[pq[index]] < keys[pq[switchWith]]) {
+						break;
+					}
+				}
+			}
+		}
+
+		private int getParent(int i) {
+			return (i / 2);
+		}
+
+		void swap(int child, int parent) {
+			int temp = pq[child];
+			pq[child] = pq[parent];
+			pq[parent] = temp;
+
+			indexLocOnHeap[pq[parent]] = parent;
+			indexLocOnHeap[pq[child]] = child;
+		}
+
+		boolean contains(int i) {
+			return indexLocOnHeap[i] != -1 ? true : false;
+		}
+
+		int deleteMin() {
+			int minIndex = -1;
+			if (!isEmpty()) {
+				minIndex = pq[0];
+				swap(0, currSize--);
+				heapifyDown(0);
+				indexLocOnHeap[minIndex] = -1;
+			}
+			return minIndex;
+		}
+
+		void reduceKey(int i, double value) {
+			if (i >= 0 && contains(i)) {
+				keys[i] = value;
+				heapifyUp(indexLocOnHeap[i]);
+			}
+		}
+
+		boolean isEmpty() {
+			return currSize == -1 ? true : false;
+		}
+
+		boolean isFull() {
+			return currSize == limit ? true : false;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * A min priority queue over the indices 0 .. limit - 1 with reduce-key, the
+ * operations Prim needs. {@link PrimMST} works against this so the queue can
+ * be swapped, see {@link QueueType}
+ */
+public interface IndexedMinQueue {
+
+	/**
+	 * Adds an index that is not queued yet
+	 * 
+	 * @param i
+	 * @param value
+	 */
+	void insert(int i, double value);
+
+	/**
+	 * Lowers the key of a queued index
+	 * 
+	 * @param i
+	 * @param value
+	 */
+	void reduceKey(int i, double value);
+
+	/**
+	 * Removes and returns the index with the smallest key
+	 * 
+	 * @return
+	 */
+	int deleteMin();
+
+	boolean contains(int i);
+
+	boolean isEmpty();
+
+	int size();
+
+	/**
+	 * Empties the queue and zeroes the counters without allocating
+	 */
+	void reset();
+
+	long getInsertCount();
+
+	long getReduceKeyCount();
+
+	long getDeleteMinCount();
+}
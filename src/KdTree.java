@@ -0,0 +1,396 @@
+/**
+ * A static 2-d tree over a set of points. The tree is stored in flat arrays
+ * (one slot per node) so building and querying it does not create node
+ * objects. Besides the usual pruning on the bounding box, every node can carry
+ * the id of the component all its points belong to. This lets the Boruvka
+ * step in {@link EuclideanMST} skip whole subtrees that are in the same
+ * component as the query point. It also answers k nearest neighbour
+ * queries, used for the candidate lists of {@link TourImprover}.
+ */
+public class KdTree {
+
+	/**
+	 * Nodes with this many points or less are not split any further
+	 */
+	private static final int LEAF_SIZE = 8;
+
+	/**
+	 * Coordinates of all points, indexed by point id
+	 */
+	private double[] x;
+	private double[] y;
+
+	/**
+	 * Point ids in tree order. Node k holds ids[nodeStart[k]] up to
+	 * ids[nodeEnd[k] - 1]
+	 */
+	private int[] ids;
+
+	private int[] nodeStart;
+	private int[] nodeEnd;
+	/**
+	 * Child node numbers, -1 for a leaf. The left child of a node is always
+	 * the next node, so children have higher numbers than their parent
+	 */
+	private int[] rightChild;
+	private double[] minX;
+	private double[] maxX;
+	private double[] minY;
+	private double[] maxY;
+	private int nodeCount = 0;
+
+	/**
+	 * Builds a tree over all points of a point set
+	 * 
+	 * @param points
+	 */
+	public KdTree(PointSet points) {
+		this(points.getXs(), points.getYs(), points.size());
+	}
+
+	/**
+	 * Builds a tree over the first n points of the coordinate arrays
+	 * 
+	 * @param x
+	 * @param y
+	 * @param n
+	 */
+	public KdTree(double[] x, double[] y, int n) {
+		this(x, y, identity(n));
+	}
+
+	/**
+	 * Builds a tree over the given point ids only. The coordinate arrays are
+	 * indexed by the point id and are not copied
+	 * 
+	 * @param x
+	 * @param y
+	 * @param pointIds
+	 */
+	public KdTree(double[] x, double[] y, int[] pointIds) {
+		this.x = x;
+		this.y = y;
+		this.ids = pointIds.clone();
+
+		int capacity = 4 * (ids.length / LEAF_SIZE) + 4;
+		nodeStart = new int[capacity];
+		nodeEnd = new int[capacity];
+		rightChild = new int[capacity];
+		minX = new double[capacity];
+		maxX = new double[capacity];
+		minY = new double[capacity];
+		maxY = new double[capacity];
+
+		if (ids.length > 0) {
+			build(0, ids.length);
+		}
+	}
+
+	private static int[] identity(int n) {
+		int[] array = new int[n];
+		for (int i = 0; i < n; i++) {
+			array[i] = i;
+		}
+		return array;
+	}
+
+	/**
+	 * Recursively builds the node for ids[start..end) and returns its number
+	 * 
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private int build(int start, int end) {
+		int node = nodeCount++;
+		nodeStart[node] = start;
+		nodeEnd[node] = end;
+		rightChild[node] = -1;
+
+		double loX = Double.POSITIVE_INFINITY, hiX = Double.NEGATIVE_INFINITY;
+		double loY = Double.POSITIVE_INFINITY, hiY = Double.NEGATIVE_INFINITY;
+		for (int i = start; i < end; i++) {
+			int id = ids[i];
+			loX = Math.min(loX, x[id]);
+			hiX = Math.max(hiX, x[id]);
+			loY = Math.min(loY, y[id]);
+			hiY = Math.max(hiY, y[id]);
+		}
+		minX[node] = loX;
+		maxX[node] = hiX;
+		minY[node] = loY;
+		maxY[node] = hiY;
+
+		if (end - start > LEAF_SIZE) {
+			// Split the wider side at the median
+			double[] coords = (hiX - loX >= hiY - loY) ? x : y;
+			int mid = (start + end) >>> 1;
+			select(ids, coords, start, end - 1, mid);
+
+			build(start, mid);
+			rightChild[node] = build(mid, end);
+		}
+		return node;
+	}
+
+	/**
+	 * Quickselect on ids[lo..hi] so that ids[k] ends up holding the point with
+	 * the k-th smallest coordinate, smaller ones before it and larger ones
+	 * after it
+	 * 
+	 * @param ids
+	 * @param coords
+	 * @param lo
+	 * @param hi
+	 * @param k
+	 */
+	static void select(int[] ids, double[] coords, int lo, int hi, int k) {
+		while (hi > lo) {
+			double pivot = coords[ids[(lo + hi) >>> 1]];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (coords[ids[i]] < pivot) {
+					i++;
+				}
+				while (coords[ids[j]] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					int temp = ids[i];
+					ids[i] = ids[j];
+					ids[j] = temp;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Recomputes the component of every node: the component id if all the
+	 * points below the node are in the same component, -1 otherwise
+	 * 
+	 * @param component
+	 *            component id of every point
+	 * @param nodeComponent
+	 *            output, one entry per node
+	 */
+	public void updateNodeComponents(int[] component, int[] nodeComponent) {
+		// Children always come after their parent so walk backwards
+		for (int node = nodeCount - 1; node >= 0; node--) {
+			int right = rightChild[node];
+			if (right == -1) {
+				int first = component[ids[nodeStart[node]]];
+				for (int i = nodeStart[node] + 1; i < nodeEnd[node]; i++) {
+					if (component[ids[i]] != first) {
+						first = -1;
+						break;
+					}
+				}
+				nodeComponent[node] = first;
+			} else {
+				int left = nodeComponent[node + 1];
+				nodeComponent[node] = (left == nodeComponent[right]) ? left
+						: -1;
+			}
+		}
+	}
+
+	/**
+	 * Finds the nearest point to p that is in a different component than p.
+	 * Only points closer than the bound are considered
+	 * 
+	 * @param p
+	 *            query point id
+	 * @param component
+	 *            component id of every point
+	 * @param nodeComponent
+	 *            as filled by updateNodeComponents
+	 * @param best
+	 *            best[0] holds the squared distance bound. It is lowered to
+	 *            the squared distance of the point found
+	 * @return the point id, or -1 if nothing closer than the bound exists
+	 */
+	public int nearestOutside(int p, int[] component, int[] nodeComponent,
+			double[] best) {
+		if (nodeCount == 0) {
+			return -1;
+		}
+		return nearestOutside(0, p, component[p], component, nodeComponent,
+				best, -1);
+	}
+
+	private int nearestOutside(int node, int p, int pComponent,
+			int[] component, int[] nodeComponent, double[] best, int found) {
+		if (nodeComponent[node] == pComponent
+				|| boxDistance(node, x[p], y[p]) >= best[0]) {
+			return found;
+		}
+
+		int right = rightChild[node];
+		if (right == -1) {
+			double px = x[p], py = y[p];
+			for (int i = nodeStart[node]; i < nodeEnd[node]; i++) {
+				int q = ids[i];
+				if (component[q] == pComponent) {
+					continue;
+				}
+				double dx = x[q] - px, dy = y[q] - py;
+				double d = dx * dx + dy * dy;
+				if (d < best[0]) {
+					best[0] = d;
+					found = q;
+				}
+			}
+			return found;
+		}
+
+		// Go into the closer child first so the bound shrinks faster
+		int left = node + 1;
+		if (boxDistance(left, x[p], y[p]) <= boxDistance(right, x[p], y[p])) {
+			found = nearestOutside(left, p, pComponent, component,
+					nodeComponent, best, found);
+			return nearestOutside(right, p, pComponent, component,
+					nodeComponent, best, found);
+		}
+		found = nearestOutside(right, p, pComponent, component, nodeComponent,
+				best, found);
+		return nearestOutside(left, p, pComponent, component, nodeComponent,
+				best, found);
+	}
+
+	/**
+	 * Finds the k nearest points to point p, not counting p itself. The
+	 * results are sorted by distance, closest first
+	 * 
+	 * @param p
+	 *            query point id
+	 * @param k
+	 * @param found
+	 *            receives the point ids, needs room for k
+	 * @param foundDistance
+	 *            receives the squared distances, needs room for k
+	 * @return how many points were found (less than k only for small trees)
+	 */
+	public int nearest(int p, int k, int[] found, double[] foundDistance) {
+		if (nodeCount == 0 || k <= 0) {
+			return 0;
+		}
+		int count = nearest(0, p, k, found, foundDistance, 0);
+
+		// The results are a max heap, sort them by repeatedly moving the
+		// largest to the end
+		for (int last = count - 1; last > 0; last--) {
+			swap(found, foundDistance, 0, last);
+			siftDown(found, foundDistance, 0, last);
+		}
+		return count;
+	}
+
+	private int nearest(int node, int p, int k, int[] found,
+			double[] foundDistance, int count) {
+		if (count == k && boxDistance(node, x[p], y[p]) >= foundDistance[0]) {
+			return count;
+		}
+
+		int right = rightChild[node];
+		if (right == -1) {
+			double px = x[p], py = y[p];
+			for (int i = nodeStart[node]; i < nodeEnd[node]; i++) {
+				int q = ids[i];
+				if (q == p) {
+					continue;
+				}
+				double dx = x[q] - px, dy = y[q] - py;
+				double d = dx * dx + dy * dy;
+				if (count < k) {
+					// Heap not full yet, add at the bottom and sift up
+					int child = count++;
+					found[child] = q;
+					foundDistance[child] = d;
+					while (child > 0
+							&& foundDistance[(child - 1) / 2] < foundDistance[child]) {
+						swap(found, foundDistance, child, (child - 1) / 2);
+						child = (child - 1) / 2;
+					}
+				} else if (d < foundDistance[0]) {
+					// Replace the farthest point found so far
+					found[0] = q;
+					foundDistance[0] = d;
+					siftDown(found, foundDistance, 0, count);
+				}
+			}
+			return count;
+		}
+
+		int left = node + 1;
+		if (boxDistance(left, x[p], y[p]) <= boxDistance(right, x[p], y[p])) {
+			count = nearest(left, p, k, found, foundDistance, count);
+			return nearest(right, p, k, found, foundDistance, count);
+		}
+		count = nearest(right, p, k, found, foundDistance, count);
+		return nearest(left, p, k, found, foundDistance, count);
+	}
+
+	/**
+	 * Sift down in the max heap found[0..size) ordered by foundDistance
+	 */
+	private static void siftDown(int[] found, double[] foundDistance, int i,
+			int size) {
+		while (2 * i + 1 < size) {
+			int child = 2 * i + 1;
+			if (child + 1 < size
+					&& foundDistance[child + 1] > foundDistance[child]) {
+				child++;
+			}
+			if (foundDistance[i] >= foundDistance[child]) {
+				return;
+			}
+			swap(found, foundDistance, i, child);
+			i = child;
+		}
+	}
+
+	private static void swap(int[] found, double[] foundDistance, int i, int j) {
+		int id = found[i];
+		found[i] = found[j];
+		found[j] = id;
+		double d = foundDistance[i];
+		foundDistance[i] = foundDistance[j];
+		foundDistance[j] = d;
+	}
+
+	/**
+	 * Squared distance from a coordinate to the bounding box of a node
+	 * 
+	 * @param node
+	 * @param px
+	 * @param py
+	 * @return
+	 */
+	private double boxDistance(int node, double px, double py) {
+		double dx = 0.0, dy = 0.0;
+		if (px < minX[node]) {
+			dx = minX[node] - px;
+		} else if (px > maxX[node]) {
+			dx = px - maxX[node];
+		}
+		if (py < minY[node]) {
+			dy = minY[node] - py;
+		} else if (py > maxY[node]) {
+			dy = py - maxY[node];
+		}
+		return dx * dx + dy * dy;
+	}
+}
@@ -0,0 +1,467 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A sparse candidate graph: every point is joined to its k nearest
+ * neighbours, and the edges are made undirected. The lists are kept in
+ * compressed form (CSR): the neighbours of vertex v are targets[offsets[v]]
+ * up to targets[offsets[v + 1] - 1], sorted, with the edge lengths in
+ * weights. Memory is O(n k) instead of the O(n^2) of the {@link Graph}
+ * matrix.
+ * 
+ * The neighbours are found with a uniform grid over the bounding box with
+ * about two points per cell, searched in growing rings around the cell of the
+ * point. Clusters far apart can leave the k nearest neighbour graph in
+ * pieces, so the pieces are then joined with their shortest connecting edges
+ * (Boruvka style, with the k-d tree) until the graph is connected. The MST of
+ * the result is then usually the Euclidean MST.
+ * 
+ * The weights are floats to halve the memory, so tree lengths from this graph
+ * can differ from the exact ones in the last digits.
+ */
+public class KnnGraph implements WeightedGraph {
+
+	public static final int DEFAULT_K = 8;
+
+	/**
+	 * Points below this count are searched by a single thread
+	 */
+	private static final int PARALLEL_THRESHOLD = 4096;
+
+	private int vertices;
+	private int[] offsets;
+	private int[] targets;
+	private float[] weights;
+
+	/**
+	 * Number of edges added to connect the pieces of the k nearest neighbour
+	 * graph
+	 */
+	private int repairEdges = 0;
+
+	private KnnGraph(int vertices) {
+		this.vertices = vertices;
+	}
+
+	/**
+	 * Builds the connected k nearest neighbour graph of the points
+	 * 
+	 * @param points
+	 * @param k
+	 *            neighbours per point
+	 * @param threads
+	 *            threads for the neighbour search
+	 * @return
+	 */
+	public static KnnGraph build(PointSet points, int k, int threads) {
+		int size = points.size();
+		k = Math.max(1, Math.min(k, size - 1));
+		KnnGraph graph = new KnnGraph(size);
+		if (size < 2) {
+			graph.offsets = new int[size + 1];
+			graph.targets = new int[0];
+			graph.weights = new float[0];
+			return graph;
+		}
+
+		// Directed edges p -> neighbour, k per point
+		int[] neighbours = new int[size * k];
+		int[] neighbourCount = new int[size];
+		Grid grid = new Grid(points);
+		SearchTask task = new SearchTask(grid, k, neighbours, neighbourCount,
+				0, size);
+		if (threads <= 1 || size < PARALLEL_THRESHOLD) {
+			task.compute();
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				pool.invoke(task);
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		int edgeCount = 0;
+		int[] from = new int[size * k];
+		int[] to = new int[size * k];
+		for (int p = 0; p < size; p++) {
+			for (int j = 0; j < neighbourCount[p]; j++) {
+				from[edgeCount] = p;
+				to[edgeCount++] = neighbours[p * k + j];
+			}
+		}
+		graph.fill(points, from, to, edgeCount);
+
+		int[] component = new int[size];
+		if (GraphSearch.components(graph, component) > 1) {
+			int[][] extra = connect(points, component);
+			int extraCount = extra[0].length;
+			from = Arrays.copyOf(from, edgeCount + extraCount);
+			to = Arrays.copyOf(to, edgeCount + extraCount);
+			System.arraycopy(extra[0], 0, from, edgeCount, extraCount);
+			System.arraycopy(extra[1], 0, to, edgeCount, extraCount);
+			graph.fill(points, from, to, edgeCount + extraCount);
+			graph.repairEdges = extraCount;
+		}
+		return graph;
+	}
+
+	public static KnnGraph build(PointSet points) {
+		return build(points, DEFAULT_K, 1);
+	}
+
+	/**
+	 * Builds the lists from directed edges: every edge is stored at both
+	 * ends, then every list is sorted and duplicates removed
+	 * 
+	 * @param points
+	 * @param from
+	 * @param to
+	 * @param count
+	 */
+	private void fill(PointSet points, int[] from, int[] to, int count) {
+		int[] start = new int[vertices + 1];
+		for (int e = 0; e < count; e++) {
+			start[from[e] + 1]++;
+			start[to[e] + 1]++;
+		}
+		for (int i = 0; i < vertices; i++) {
+			start[i + 1] += start[i];
+		}
+		int[] position = Arrays.copyOf(start, vertices);
+		int[] all = new int[2 * count];
+		for (int e = 0; e < count; e++) {
+			all[position[from[e]]++] = to[e];
+			all[position[to[e]]++] = from[e];
+		}
+
+		offsets = new int[vertices + 1];
+		int total = 0;
+		for (int v = 0; v < vertices; v++) {
+			Arrays.sort(all, start[v], start[v + 1]);
+			offsets[v] = total;
+			for (int k = start[v]; k < start[v + 1]; k++) {
+				if (all[k] != v
+						&& (total == offsets[v] || all[total - 1] != all[k])) {
+					all[total++] = all[k];
+				}
+			}
+		}
+		offsets[vertices] = total;
+
+		targets = Arrays.copyOf(all, total);
+		weights = new float[total];
+		for (int v = 0; v < vertices; v++) {
+			for (int k = offsets[v]; k < offsets[v + 1]; k++) {
+				weights[k] = (float) points.distance(v, targets[k]);
+			}
+		}
+	}
+
+	/**
+	 * Joins the pieces of the graph: every round each piece gets its shortest
+	 * edge to another piece, found with the k-d tree, and the pieces joined by
+	 * those edges are merged, until one piece is left
+	 * 
+	 * @param points
+	 * @param component
+	 *            the piece of every point, as from GraphSearch.components
+	 * @return the edges added, as { from, to }
+	 */
+	private static int[][] connect(PointSet points, int[] component) {
+		int size = points.size();
+		KdTree tree = new KdTree(points);
+		int[] nodeComponent = new int[tree.getNodeCount()];
+
+		// Union-find over the piece numbers
+		int[] unionParent = new int[size];
+		for (int i = 0; i < size; i++) {
+			unionParent[i] = i;
+		}
+
+		int[] from = new int[size];
+		int[] to = new int[size];
+		int added = 0;
+
+		double[] compBest = new double[size];
+		int[] compFrom = new int[size];
+		int[] compTo = new int[size];
+		double[] best = new double[1];
+
+		while (true) {
+			for (int p = 0; p < size; p++) {
+				component[p] = find(unionParent, component[p]);
+			}
+			tree.updateNodeComponents(component, nodeComponent);
+
+			Arrays.fill(compBest, Double.POSITIVE_INFINITY);
+			Arrays.fill(compTo, -1);
+			for (int p = 0; p < size; p++) {
+				int c = component[p];
+				best[0] = compBest[c];
+				int q = tree.nearestOutside(p, component, nodeComponent, best);
+				if (q != -1) {
+					compBest[c] = best[0];
+					compFrom[c] = p;
+					compTo[c] = q;
+				}
+			}
+
+			boolean merged = false;
+			for (int c = 0; c < size; c++) {
+				if (compTo[c] == -1) {
+					continue;
+				}
+				int a = find(unionParent, component[compFrom[c]]);
+				int b = find(unionParent, component[compTo[c]]);
+				if (a != b) {
+					unionParent[a] = b;
+					from[added] = compFrom[c];
+					to[added++] = compTo[c];
+					merged = true;
+				}
+			}
+			if (!merged) {
+				break;
+			}
+		}
+		return new int[][] { Arrays.copyOf(from, added),
+				Arrays.copyOf(to, added) };
+	}
+
+	private static int find(int[] unionParent, int i) {
+		while (unionParent[i] != i) {
+			unionParent[i] = unionParent[unionParent[i]];
+			i = unionParent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * The points bucketed into square cells. The points of cell c are
+	 * cellPoints[cellStart[c]] up to cellPoints[cellStart[c + 1] - 1]
+	 */
+	private static class Grid {
+
+		final PointSet points;
+		final double minX, minY, cellSize;
+		final int columns, rows;
+		final int[] cellStart;
+		final int[] cellPoints;
+
+		Grid(PointSet points) {
+			this.points = points;
+			int size = points.size();
+			double[] xs = points.getXs();
+			double[] ys = points.getYs();
+
+			double loX = Double.POSITIVE_INFINITY, loY = Double.POSITIVE_INFINITY;
+			double hiX = Double.NEGATIVE_INFINITY, hiY = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < size; i++) {
+				loX = Math.min(loX, xs[i]);
+				hiX = Math.max(hiX, xs[i]);
+				loY = Math.min(loY, ys[i]);
+				hiY = Math.max(hiY, ys[i]);
+			}
+			minX = loX;
+			minY = loY;
+
+			// About two points per cell, and never more than about 2 n cells
+			// along a side when the points lie almost on a line
+			double width = Math.max(hiX - loX, 1e-9);
+			double height = Math.max(hiY - loY, 1e-9);
+			double cell = Math.sqrt(width * height * 2 / size);
+			cell = Math.max(cell, Math.max(width, height) / (2.0 * size));
+			cellSize = cell;
+			columns = (int) (width / cell) + 1;
+			rows = (int) (height / cell) + 1;
+
+			cellStart = new int[columns * rows + 1];
+			int[] cellOf = new int[size];
+			for (int i = 0; i < size; i++) {
+				cellOf[i] = cell(column(xs[i]), row(ys[i]));
+				cellStart[cellOf[i] + 1]++;
+			}
+			for (int c = 0; c < columns * rows; c++) {
+				cellStart[c + 1] += cellStart[c];
+			}
+			int[] position = Arrays.copyOf(cellStart, columns * rows);
+			cellPoints = new int[size];
+			for (int i = 0; i < size; i++) {
+				cellPoints[position[cellOf[i]]++] = i;
+			}
+		}
+
+		int column(double x) {
+			return Math.min(columns - 1, (int) ((x - minX) / cellSize));
+		}
+
+		int row(double y) {
+			return Math.min(rows - 1, (int) ((y - minY) / cellSize));
+		}
+
+		int cell(int column, int row) {
+			return row * columns + column;
+		}
+
+		/**
+		 * The k nearest other points of p, nearest first, searched ring by
+		 * ring around the cell of p. A point in ring r + 1 is at least r
+		 * cells away, so the search stops once the k-th distance found is
+		 * below that
+		 * 
+		 * @param p
+		 * @param k
+		 * @param found
+		 * @param foundDistance
+		 *            squared distances
+		 * @return number found (k unless there are fewer other points)
+		 */
+		int nearest(int p, int k, int[] found, double[] foundDistance) {
+			double px = points.getX(p);
+			double py = points.getY(p);
+			int pc = column(px);
+			int pr = row(py);
+			int count = 0;
+			int maxRing = Math.max(columns, rows);
+
+			for (int ring = 0; ring <= maxRing; ring++) {
+				int c0 = pc - ring, c1 = pc + ring;
+				int r0 = pr - ring, r1 = pr + ring;
+				for (int r = Math.max(0, r0); r <= Math.min(rows - 1, r1); r++) {
+					boolean edgeRow = r == r0 || r == r1;
+					// Inside rows only have the two cells at the ends
+					int step = edgeRow ? 1 : Math.max(1, c1 - c0);
+					for (int c = c0; c <= c1; c += step) {
+						if (c < 0 || c >= columns) {
+							continue;
+						}
+						int cell = cell(c, r);
+						for (int j = cellStart[cell]; j < cellStart[cell + 1]; j++) {
+							int q = cellPoints[j];
+							if (q == p) {
+								continue;
+							}
+							double d = points.squaredDistance(p, q);
+							if (count == k && d >= foundDistance[k - 1]) {
+								continue;
+							}
+							// Insert into the sorted list
+							int slot = count < k ? count++ : k - 1;
+							while (slot > 0 && foundDistance[slot - 1] > d) {
+								found[slot] = found[slot - 1];
+								foundDistance[slot] = foundDistance[slot - 1];
+								slot--;
+							}
+							found[slot] = q;
+							foundDistance[slot] = d;
+						}
+					}
+				}
+				double reach = ring * cellSize;
+				if (count == k && foundDistance[k - 1] <= reach * reach) {
+					break;
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Finds the neighbours of the points [from, to), splitting the range over
+	 * the pool
+	 */
+	private static class SearchTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Points per task below which the task does not split further
+		 */
+		private static final int MIN_POINTS = 1024;
+
+		private final Grid grid;
+		private final int k;
+		private final int[] neighbours;
+		private final int[] neighbourCount;
+		private final int from;
+		private final int to;
+
+		SearchTask(Grid grid, int k, int[] neighbours, int[] neighbourCount,
+				int from, int to) {
+			this.grid = grid;
+			this.k = k;
+			this.neighbours = neighbours;
+			this.neighbourCount = neighbourCount;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > MIN_POINTS && getPool() != null) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new SearchTask(grid, k, neighbours, neighbourCount,
+						from, middle), new SearchTask(grid, k, neighbours,
+						neighbourCount, middle, to));
+				return;
+			}
+
+			int[] found = new int[k];
+			double[] foundDistance = new double[k];
+			for (int p = from; p < to; p++) {
+				int count = grid.nearest(p, k, found, foundDistance);
+				System.arraycopy(found, 0, neighbours, p * k, count);
+				neighbourCount[p] = count;
+			}
+		}
+	}
+
+	public int getSize() {
+		return vertices;
+	}
+
+	public long getEdgeCount() {
+		return targets.length / 2;
+	}
+
+	/**
+	 * Looks the edge up with a binary search in the sorted list of i
+	 */
+	public double getWeight(int i, int j) {
+		int k = Arrays.binarySearch(targets, offsets[i], offsets[i + 1], j);
+		return k >= 0 ? weights[k] : Double.POSITIVE_INFINITY;
+	}
+
+	public int getNeighbours(int vertex, int[] targets, double[] weights) {
+		int count = 0;
+		for (int k = offsets[vertex]; k < offsets[vertex + 1]; k++) {
+			targets[count] = this.targets[k];
+			weights[count++] = this.weights[k];
+		}
+		return count;
+	}
+
+	/**
+	 * The compressed lists, see the class comment. Not copies, do not change
+	 * them
+	 * 
+	 * @return
+	 */
+	public int[] getOffsets() {
+		return offsets;
+	}
+
+	public int[] getTargets() {
+		return targets;
+	}
+
+	public float[] getWeights() {
+		return weights;
+	}
+
+	public int getRepairEdges() {
+		return repairEdges;
+	}
+}
@@ -0,0 +1,253 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Byte offsets of the data rows of a csv file, kept in a sidecar file next to
+ * it (the csv name plus ".idx"). The sidecar is built by one scan of the csv
+ * and is reused for as long as the size and the modification time of the csv
+ * are the same as when it was built. With it a range of rows can be read
+ * without looking at anything before the first row.
+ * 
+ * The sidecar holds a header (magic, version, csv size, csv modification time,
+ * row count) followed by rowCount + 1 offsets. The last offset is where the
+ * row after the last one would start.
+ */
+public class LineIndex {
+
+	private static final int MAGIC = 0x54535049;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+	private static final String SUFFIX = ".idx";
+
+	/**
+	 * The csv is scanned in windows of this size when the index is built
+	 */
+	private static final long WINDOW_SIZE = 1L << 28;
+
+	/**
+	 * Bytes of the sidecar written at a time
+	 */
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+	private int rowCount;
+
+	/**
+	 * The offsets, mapped from the sidecar
+	 */
+	private LongBuffer offsets;
+
+	private LineIndex(int rowCount, LongBuffer offsets) {
+		this.rowCount = rowCount;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Opens the index of a csv file, building and saving it first if there is
+	 * no sidecar or the csv changed since it was written
+	 * 
+	 * @param csvFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static LineIndex open(String csvFile) throws IOException {
+		File csv = new File(csvFile);
+		File sidecar = new File(csvFile + SUFFIX);
+
+		LineIndex index = read(sidecar, csv.length(), csv.lastModified());
+		if (index != null) {
+			return index;
+		}
+
+		long[] rowOffsets = scan(csv);
+		try {
+			write(sidecar, rowOffsets, csv.length(), csv.lastModified());
+		} catch (IOException e) {
+			// Read only directory. The index still works for this run
+			return new LineIndex(rowOffsets.length - 1,
+					LongBuffer.wrap(rowOffsets));
+		}
+
+		index = read(sidecar, csv.length(), csv.lastModified());
+		return index != null ? index : new LineIndex(rowOffsets.length - 1,
+				LongBuffer.wrap(rowOffsets));
+	}
+
+	/**
+	 * Maps the sidecar if it exists and matches the csv
+	 * 
+	 * @param sidecar
+	 * @param csvSize
+	 * @param csvModified
+	 * @return the index or null if the sidecar is missing or stale
+	 * @throws IOException
+	 */
+	private static LineIndex read(File sidecar, long csvSize, long csvModified)
+			throws IOException {
+		if (!sidecar.isFile() || sidecar.length() < HEADER_SIZE) {
+			return null;
+		}
+
+		try (RandomAccessFile file = new RandomAccessFile(sidecar, "r");
+				FileChannel channel = file.getChannel()) {
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining() && channel.read(header) != -1) {
+			}
+			header.flip();
+
+			if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC
+					|| header.getInt() != VERSION
+					|| header.getLong() != csvSize
+					|| header.getLong() != csvModified) {
+				return null;
+			}
+
+			int rowCount = header.getInt();
+			long expected = HEADER_SIZE + 8L * (rowCount + 1);
+			if (rowCount < 0 || channel.size() != expected) {
+				return null;
+			}
+
+			MappedByteBuffer mapped = channel.map(
+					FileChannel.MapMode.READ_ONLY, HEADER_SIZE, expected
+							- HEADER_SIZE);
+			return new LineIndex(rowCount, mapped.asLongBuffer());
+		}
+	}
+
+	/**
+	 * Finds where every data row of the csv starts. The header is not a data
+	 * row
+	 * 
+	 * @param csv
+	 * @return
+	 * @throws IOException
+	 */
+	private static long[] scan(File csv) throws IOException {
+		long[] rowOffsets = new long[1024];
+		int count = 0;
+		boolean header = true;
+
+		try (RandomAccessFile file = new RandomAccessFile(csv, "r");
+				FileChannel channel = file.getChannel()) {
+
+			long fileSize = channel.size();
+			long position = 0;
+			long lineStart = 0;
+
+			while (position < fileSize) {
+				long length = Math.min(WINDOW_SIZE, fileSize - position);
+				MappedByteBuffer buffer = channel.map(
+						FileChannel.MapMode.READ_ONLY, position, length);
+
+				for (int i = 0; i < (int) length; i++) {
+					if (buffer.get(i) == '\n') {
+						if (!header) {
+							if (count == rowOffsets.length) {
+								rowOffsets = Arrays.copyOf(rowOffsets,
+										count * 2);
+							}
+							rowOffsets[count++] = lineStart;
+						}
+						header = false;
+						lineStart = position + i + 1;
+					}
+				}
+				position += length;
+			}
+
+			// Last row without a line break
+			if (lineStart < fileSize && !header) {
+				if (count == rowOffsets.length) {
+					rowOffsets = Arrays.copyOf(rowOffsets, count + 1);
+				}
+				rowOffsets[count++] = lineStart;
+				lineStart = fileSize;
+			}
+
+			long[] result = Arrays.copyOf(rowOffsets, count + 1);
+			result[count] = header ? fileSize : lineStart;
+			return result;
+		}
+	}
+
+	/**
+	 * Writes the sidecar to a temporary file of its own and then moves it
+	 * over the old one in one step, so a reader never sees half an index and
+	 * two processes writing at once never truncate each other's file
+	 * 
+	 * @param sidecar
+	 * @param rowOffsets
+	 * @param csvSize
+	 * @param csvModified
+	 * @throws IOException
+	 */
+	private static void write(File sidecar, long[] rowOffsets, long csvSize,
+			long csvModified) throws IOException {
+		File temp = File.createTempFile("idx", ".tmp", sidecar
+				.getAbsoluteFile().getParentFile());
+		try {
+			try (RandomAccessFile file = new RandomAccessFile(temp, "rw");
+					FileChannel channel = file.getChannel()) {
+				ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+				buffer.putInt(MAGIC);
+				buffer.putInt(VERSION);
+				buffer.putLong(csvSize);
+				buffer.putLong(csvModified);
+				buffer.putInt(rowOffsets.length - 1);
+
+				// The offsets go through the buffer a part at a time
+				for (long offset : rowOffsets) {
+					if (buffer.remaining() < 8) {
+						writeFully(channel, buffer);
+					}
+					buffer.putLong(offset);
+				}
+				writeFully(channel, buffer);
+			}
+			Files.move(temp.toPath(), sidecar.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Number of data rows in the csv
+	 * 
+	 * @return
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Byte offset where a data row starts. getOffset(getRowCount()) is the end
+	 * of the last row
+	 * 
+	 * @param row
+	 * @return
+	 */
+	public long getOffset(int row) {
+		return offsets.get(row);
+	}
+}
@@ -0,0 +1,27 @@
+/**
+ * The algorithms {@link PrimMST} can use to build the minimum spanning tree
+ */
+public enum MSTEngine {
+
+	/**
+	 * Pick the engine from the density of the loaded graph
+	 */
+	AUTO,
+
+	/**
+	 * Prim with the indexed PriorityQueue. O(E log V), good for sparse graphs
+	 */
+	HEAP,
+
+	/**
+	 * Prim with a flat distance array and a linear min scan. O(V^2) with no
+	 * heap and no allocation per visit, good for complete graphs
+	 */
+	DENSE,
+
+	/**
+	 * Boruvka over a k-d tree, see {@link EuclideanMST}. O(n log^2 n) and only
+	 * needs the points, so it is used for large ranges
+	 */
+	EUCLIDEAN
+}
@@ -0,0 +1,23 @@
+/**
+ * How a {@link Graph} keeps its weights
+ */
+public enum MatrixStorage {
+
+	/**
+	 * The old n x n double[][] matrix. 8 n^2 bytes plus a header per row,
+	 * every weight is stored twice
+	 */
+	DOUBLE,
+
+	/**
+	 * One flat float[] with only the cells above the diagonal, 2 n^2 bytes.
+	 * Weights are rounded to float precision
+	 */
+	FLOAT,
+
+	/**
+	 * Like FLOAT but in a direct FloatBuffer outside the Java heap, so a large
+	 * matrix does not need a large -Xmx. Limited to about 32000 vertices
+	 */
+	OFF_HEAP
+}
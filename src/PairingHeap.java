@@ -0,0 +1,289 @@
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * An indexed pairing heap. Every queued index is a node of a heap ordered
+ * tree in which a node keeps only its first child and its next sibling. An
+ * insert links the new node with the root, a reduce-key cuts the node (and
+ * its subtree) out of its sibling list and links it with the root, both in
+ * O(1). deleteMin removes the root and merges its children in two passes,
+ * which is O(log n) amortized.
+ * 
+ * In Prim on a graph where reduce-keys far outnumber deleteMins this is often
+ * faster than the {@link PriorityQueue}. The nodes live in arrays indexed by
+ * the vertex, so nothing is allocated after the constructor.
+ */
+public class PairingHeap implements IndexedMinQueue {
+
+	private int limit;
+
+	private double[] keys;
+	private int[] child;
+	private int[] next;
+
+	/**
+	 * The previous sibling, or the parent for a first child. -1 for the root
+	 */
+	private int[] prev;
+	private boolean[] queued;
+
+	private int root = -1;
+	private int currSize = 0;
+
+	/**
+	 * Work space of deleteMin and reset
+	 */
+	private int[] pending;
+
+	private long insertCount = 0;
+	private long reduceKeyCount = 0;
+	private long deleteMinCount = 0;
+
+	public PairingHeap(int limit) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("Negative limit " + limit);
+		}
+		this.limit = limit;
+		keys = new double[limit];
+		child = new int[limit];
+		next = new int[limit];
+		prev = new int[limit];
+		queued = new boolean[limit];
+		pending = new int[limit];
+	}
+
+	@Override
+	public void insert(int i, double value) {
+		if (i < 0 || i >= limit) {
+			throw new IllegalArgumentException("Index " + i
+					+ " is outside 0.." + (limit - 1));
+		}
+		if (queued[i]) {
+			throw new IllegalArgumentException("Index " + i
+					+ " is already on the heap");
+		}
+		if (value != value) {
+			throw new IllegalArgumentException("NaN key for index " + i);
+		}
+		insertCount++;
+		keys[i] = value;
+		child[i] = -1;
+		next[i] = -1;
+		prev[i] = -1;
+		queued[i] = true;
+		currSize++;
+		root = root == -1 ? i : link(root, i);
+	}
+
+	@Override
+	public void reduceKey(int i, double value) {
+		if (!contains(i)) {
+			throw new NoSuchElementException("Index " + i
+					+ " is not on the heap");
+		}
+		if (!(value <= keys[i])) {
+			throw new IllegalArgumentException("New key " + value
+					+ " of index " + i + " is larger than " + keys[i]);
+		}
+		reduceKeyCount++;
+		keys[i] = value;
+		if (i == root) {
+			return;
+		}
+
+		// Cut the subtree of i out of its sibling list
+		int before = prev[i];
+		if (child[before] == i) {
+			child[before] = next[i];
+		} else {
+			next[before] = next[i];
+		}
+		if (next[i] != -1) {
+			prev[next[i]] = before;
+		}
+		next[i] = -1;
+		prev[i] = -1;
+
+		root = link(root, i);
+	}
+
+	@Override
+	public int deleteMin() {
+		if (isEmpty()) {
+			throw new NoSuchElementException("Heap is empty");
+		}
+		deleteMinCount++;
+		int min = root;
+		queued[min] = false;
+		currSize--;
+
+		int count = 0;
+		for (int c = child[min]; c != -1;) {
+			int following = next[c];
+			next[c] = -1;
+			prev[c] = -1;
+			pending[count++] = c;
+			c = following;
+		}
+
+		// First pass: link the children in pairs from left to right
+		int pairs = 0;
+		for (int k = 0; k + 1 < count; k += 2) {
+			pending[pairs++] = link(pending[k], pending[k + 1]);
+		}
+		if ((count & 1) == 1) {
+			pending[pairs++] = pending[count - 1];
+		}
+
+		// Second pass: fold the pairs into one tree from right to left
+		root = -1;
+		if (pairs > 0) {
+			root = pending[pairs - 1];
+			for (int k = pairs - 2; k >= 0; k--) {
+				root = link(pending[k], root);
+			}
+		}
+		return min;
+	}
+
+	/**
+	 * Links two roots: the one with the larger key becomes the first child of
+	 * the other
+	 * 
+	 * @param a
+	 * @param b
+	 * @return the new root
+	 */
+	private int link(int a, int b) {
+		if (keys[b] < keys[a]) {
+			int temp = a;
+			a = b;
+			b = temp;
+		}
+		int first = child[a];
+		next[b] = first;
+		if (first != -1) {
+			prev[first] = b;
+		}
+		prev[b] = a;
+		child[a] = b;
+		return a;
+	}
+
+	@Override
+	public boolean contains(int i) {
+		return i >= 0 && i < limit && queued[i];
+	}
+
+	/**
+	 * The key of an index on the heap
+	 * 
+	 * @param i
+	 * @return
+	 */
+	public double getKey(int i) {
+		if (!contains(i)) {
+			throw new NoSuchElementException("Index " + i
+					+ " is not on the heap");
+		}
+		return keys[i];
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return currSize == 0;
+	}
+
+	@Override
+	public int size() {
+		return currSize;
+	}
+
+	/**
+	 * Clears the nodes still in the tree, walking it with the pending array
+	 * as a stack
+	 */
+	@Override
+	public void reset() {
+		int top = 0;
+		if (root != -1) {
+			pending[top++] = root;
+		}
+		while (top > 0) {
+			int node = pending[--top];
+			queued[node] = false;
+			for (int c = child[node]; c != -1; c = next[c]) {
+				pending[top++] = c;
+			}
+		}
+		root = -1;
+		currSize = 0;
+		insertCount = 0;
+		reduceKeyCount = 0;
+		deleteMinCount = 0;
+	}
+
+	@Override
+	public long getInsertCount() {
+		return insertCount;
+	}
+
+	@Override
+	public long getReduceKeyCount() {
+		return reduceKeyCount;
+	}
+
+	@Override
+	public long getDeleteMinCount() {
+		return deleteMinCount;
+	}
+
+	// Test class: random operations against a d-ary PriorityQueue
+	public static void main(String[] args) {
+		Random random = new Random(args.length > 0 ? Long.parseLong(args[0])
+				: 1990);
+		for (int round = 0; round < 50; round++) {
+			int limit = 1 + random.nextInt(300);
+			PairingHeap heap = new PairingHeap(limit);
+			PriorityQueue reference = new PriorityQueue(limit);
+
+			for (int op = 0; op < 20000; op++) {
+				int i = random.nextInt(limit);
+				int choice = random.nextInt(3);
+				if (choice == 0 && !heap.contains(i)) {
+					double key = random.nextInt(100);
+					heap.insert(i, key);
+					reference.insert(i, key);
+				} else if (choice == 1 && heap.contains(i)) {
+					double key = heap.getKey(i) - random.nextInt(10);
+					heap.reduceKey(i, key);
+					reference.reduceKey(i, key);
+				} else if (!heap.isEmpty()) {
+					double expected = reference.getKey(reference.peekMin());
+					int min = heap.deleteMin();
+					if (reference.getKey(min) != expected) {
+						throw new IllegalStateException("deleteMin gave key "
+								+ reference.getKey(min) + ", expected "
+								+ expected);
+					}
+					// Take the same index out of the reference
+					reference.reduceKey(min, Double.NEGATIVE_INFINITY);
+					reference.deleteMin();
+				}
+				if (heap.size() != reference.size()) {
+					throw new IllegalStateException("Size " + heap.size()
+							+ ", expected " + reference.size());
+				}
+			}
+			if (round % 2 == 0) {
+				heap.reset();
+				for (int i = 0; i < limit; i++) {
+					if (heap.contains(i)) {
+						throw new IllegalStateException("reset left " + i);
+					}
+				}
+			}
+		}
+		System.out.println("Random operations agree with the d-ary heap");
+	}
+}
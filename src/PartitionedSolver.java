@@ -0,0 +1,523 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds one tour over a very large point set by cutting it into cells with a
+ * k-d split, solving the cells with {@link BatchSolver} on a thread pool and
+ * stitching the cell tours together along the MST of the cell centres. The
+ * memory of a solve is bounded by the cell size.
+ * 
+ * A stitch is a 2-edge exchange between a cell and its parent cell, tried at
+ * the points of the cell nearest the parent. The joints are searched on the
+ * pool too and then applied in order; a joint whose edges an earlier merge
+ * removed is searched again.
+ */
+public class PartitionedSolver {
+
+	public static final int DEFAULT_CELL_SIZE = 5000;
+
+	/**
+	 * Runs of each solve in main
+	 */
+	private static final int RUNS = 3;
+
+	/**
+	 * Nearest points of the parent cell tried for every point of a merged
+	 * cell
+	 */
+	private static final int STITCH_NEIGHBOURS = 5;
+
+	/**
+	 * Only this share of a merged cell, the points closest to the bounding
+	 * box of the parent cell, looks for a joint. At least BORDER_MIN points
+	 */
+	private static final int BORDER_SHARE = 8;
+	private static final int BORDER_MIN = 64;
+
+	private PointSet points;
+	private double[] x;
+	private double[] y;
+	private int size;
+
+	private int cellSize = DEFAULT_CELL_SIZE;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private long improveMillis = -1;
+
+	/**
+	 * The tour as a doubly linked list over the points
+	 */
+	private int[] next;
+	private int[] prev;
+
+	private List<int[]> cells;
+	private double stitchCost = 0.0;
+	private int researchedJoints = 0;
+	private long splitNanos, solveNanos, stitchNanos;
+
+	/**
+	 * The cheapest 2-edge exchange found between a cell and its parent cell:
+	 * the big cycle edge u -> un is cut as well as the cell edge v -> vn
+	 */
+	private static class Joint {
+		int u, un, v, vn;
+		boolean reversed;
+		double cost = Double.POSITIVE_INFINITY;
+	}
+
+	public PartitionedSolver(PointSet points) {
+		this.points = points;
+		x = points.getXs();
+		y = points.getYs();
+		size = points.size();
+	}
+
+	/**
+	 * Most points in a cell
+	 * 
+	 * @param cellSize
+	 */
+	public void setCellSize(int cellSize) {
+		this.cellSize = Math.max(1, cellSize);
+	}
+
+	public int getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Number of cells solved at the same time
+	 * 
+	 * @param threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Runs 2-opt / Or-opt on every cell tour for at most this long before the
+	 * stitching. Negative (the default) skips it
+	 * 
+	 * @param improveMillis
+	 */
+	public void setImproveMillis(long improveMillis) {
+		this.improveMillis = improveMillis;
+	}
+
+	/**
+	 * Solves the points
+	 * 
+	 * @return the closed tour, starting and ending at point 0
+	 */
+	public int[] solve() {
+		if (size == 0) {
+			return new int[0];
+		}
+		next = new int[size];
+		prev = new int[size];
+		stitchCost = 0.0;
+
+		researchedJoints = 0;
+
+		long time = System.nanoTime();
+		int[] ids = new int[size];
+		for (int i = 0; i < size; i++) {
+			ids[i] = i;
+		}
+		cells = new ArrayList<>();
+		split(ids, 0, size);
+		splitNanos = System.nanoTime() - time;
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			time = System.nanoTime();
+			solveCells(executor);
+			solveNanos = System.nanoTime() - time;
+
+			time = System.nanoTime();
+			stitch(executor);
+			stitchNanos = System.nanoTime() - time;
+		} finally {
+			executor.shutdown();
+		}
+
+		int[] tour = new int[size + 1];
+		int p = 0;
+		for (int i = 0; i < size; i++) {
+			tour[i] = p;
+			p = next[p];
+		}
+		tour[size] = 0;
+		return tour;
+	}
+
+	/**
+	 * Cuts ids[start..end) into cells, halving at the median of the wider
+	 * side of the bounding box
+	 * 
+	 * @param ids
+	 * @param start
+	 * @param end
+	 */
+	private void split(int[] ids, int start, int end) {
+		if (end - start <= cellSize) {
+			int[] cell = new int[end - start];
+			System.arraycopy(ids, start, cell, 0, cell.length);
+			cells.add(cell);
+			return;
+		}
+
+		double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = start; i < end; i++) {
+			minX = Math.min(minX, x[ids[i]]);
+			maxX = Math.max(maxX, x[ids[i]]);
+			minY = Math.min(minY, y[ids[i]]);
+			maxY = Math.max(maxY, y[ids[i]]);
+		}
+		double[] coords = maxX - minX >= maxY - minY ? x : y;
+
+		int middle = (start + end) >>> 1;
+		KdTree.select(ids, coords, start, end - 1, middle);
+		split(ids, start, middle);
+		split(ids, middle, end);
+	}
+
+	/**
+	 * Solves the cells on the pool, every worker on its own SolverContext,
+	 * and links every cell tour into next / prev as it comes back
+	 * 
+	 * @param executor
+	 */
+	private void solveCells(ExecutorService executor) {
+		BatchSolver batch = new BatchSolver(points);
+		batch.setImproveMillis(improveMillis);
+
+		Iterator<TourResult> results = batch.solveAll(cells, executor);
+		while (results.hasNext()) {
+			TourResult result = results.next();
+			int[] rows = result.getRows();
+			int[] tour = result.getTour();
+			for (int i = 0; i + 1 < tour.length; i++) {
+				int from = rows[tour[i]];
+				int to = rows[tour[i + 1]];
+				next[from] = to;
+				prev[to] = from;
+			}
+		}
+	}
+
+	/**
+	 * Merges every cell into its parent in the MST of the cell centres,
+	 * parents first
+	 * 
+	 * @param executor
+	 */
+	private void stitch(ExecutorService executor) {
+		int cellCount = cells.size();
+		if (cellCount == 1) {
+			return;
+		}
+
+		double[] centreX = new double[cellCount];
+		double[] centreY = new double[cellCount];
+		for (int c = 0; c < cellCount; c++) {
+			for (int p : cells.get(c)) {
+				centreX[c] += x[p];
+				centreY[c] += y[p];
+			}
+			centreX[c] /= cells.get(c).length;
+			centreY[c] /= cells.get(c).length;
+		}
+
+		PrimMST centres = new PrimMST();
+		centres.setThreads(1);
+		centres.getMetrics().setEnabled(false);
+		centres.loadGraph(new PointSet(centreX, centreY));
+		centres.getMST(0);
+		final int[] parent = centres.getParent();
+		int[] order = centres.getHamiltonianCycle(0);
+
+		// The searches only read next / prev, so they all run at once on the
+		// cell tours as solved, and all finish before the first merge
+		List<Future<Joint>> searches = new ArrayList<>();
+		for (int c = 0; c < cellCount; c++) {
+			final int cell = c;
+			searches.add(c == order[0] ? null : executor
+					.submit(new Callable<Joint>() {
+						@Override
+						public Joint call() {
+							return findJoint(cells.get(cell),
+									cells.get(parent[cell]));
+						}
+					}));
+		}
+		Joint[] joints = new Joint[cellCount];
+		try {
+			for (int c = 0; c < cellCount; c++) {
+				joints[c] = c == order[0] ? null : searches.get(c).get();
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException(e);
+		}
+
+		// order is a preorder walk, so a parent is always merged before its
+		// children. The last entry repeats the root
+		for (int k = 1; k < cellCount; k++) {
+			int c = order[k];
+			Joint joint = joints[c];
+			if (next[joint.u] != joint.un || next[joint.v] != joint.vn) {
+				joint = findJoint(cells.get(c), cells.get(parent[c]));
+				researchedJoints++;
+			}
+			join(cells.get(c), joint);
+		}
+	}
+
+	/**
+	 * The cheapest 2-edge exchange that joins the cycle through the cell
+	 * into the cycle through the parent cell
+	 * 
+	 * @param cell
+	 * @param parentCell
+	 * @return
+	 */
+	private Joint findJoint(int[] cell, int[] parentCell) {
+		KdTree tree = new KdTree(x, y, parentCell);
+		int[] found = new int[STITCH_NEIGHBOURS];
+		double[] foundDistance = new double[STITCH_NEIGHBOURS];
+		Joint best = new Joint();
+
+		for (int c : border(cell, parentCell)) {
+			int count = tree.nearest(c, STITCH_NEIGHBOURS, found,
+					foundDistance);
+			for (int j = 0; j < count; j++) {
+				// The two big cycle edges at found[j], each as u -> next[u]
+				for (int side = 0; side < 2; side++) {
+					int u = side == 0 ? found[j] : prev[found[j]];
+					int un = next[u];
+					// The two cell edges at c, each as v -> next[v]
+					for (int cellSide = 0; cellSide < 2; cellSide++) {
+						int v = cellSide == 0 ? c : prev[c];
+						int vn = next[v];
+						double removed = distance(u, un) + distance(v, vn);
+
+						// u -> vn ... v -> un keeps the cell direction
+						double cost = distance(u, vn) + distance(v, un)
+								- removed;
+						if (cost < best.cost) {
+							set(best, u, un, v, vn, false, cost);
+						}
+
+						// u -> v ... vn -> un walks the cell backwards
+						cost = distance(u, v) + distance(vn, un) - removed;
+						if (cost < best.cost) {
+							set(best, u, un, v, vn, true, cost);
+						}
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	private static void set(Joint joint, int u, int un, int v, int vn,
+			boolean reversed, double cost) {
+		joint.u = u;
+		joint.un = un;
+		joint.v = v;
+		joint.vn = vn;
+		joint.reversed = reversed;
+		joint.cost = cost;
+	}
+
+	/**
+	 * Makes the exchange of the joint, reversing the cell first if needed
+	 * 
+	 * @param cell
+	 * @param joint
+	 */
+	private void join(int[] cell, Joint joint) {
+		int u = joint.u, un = joint.un;
+		int v = joint.v, vn = joint.vn;
+		if (joint.reversed) {
+			for (int p : cell) {
+				int temp = next[p];
+				next[p] = prev[p];
+				prev[p] = temp;
+			}
+			// The cell edge is now vn -> v
+			int temp = v;
+			v = vn;
+			vn = temp;
+		}
+		next[u] = vn;
+		prev[vn] = u;
+		next[v] = un;
+		prev[un] = v;
+		stitchCost += joint.cost;
+	}
+
+	/**
+	 * The points of the cell closest to the bounding box of the parent cell,
+	 * where the cheapest joint almost always is
+	 * 
+	 * @param cell
+	 * @param parentCell
+	 * @return
+	 */
+	private int[] border(int[] cell, int[] parentCell) {
+		int count = Math.max(BORDER_MIN, cell.length / BORDER_SHARE);
+		if (count >= cell.length) {
+			return cell;
+		}
+
+		double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int p : parentCell) {
+			minX = Math.min(minX, x[p]);
+			maxX = Math.max(maxX, x[p]);
+			minY = Math.min(minY, y[p]);
+			maxY = Math.max(maxY, y[p]);
+		}
+
+		// Select over positions in the cell so the work space is cell sized
+		double[] boxDistance = new double[cell.length];
+		int[] positions = new int[cell.length];
+		for (int k = 0; k < cell.length; k++) {
+			int p = cell[k];
+			double dx = Math.max(0, Math.max(minX - x[p], x[p] - maxX));
+			double dy = Math.max(0, Math.max(minY - y[p], y[p] - maxY));
+			boxDistance[k] = dx * dx + dy * dy;
+			positions[k] = k;
+		}
+		KdTree.select(positions, boxDistance, 0, cell.length - 1, count - 1);
+		int[] border = new int[count];
+		for (int k = 0; k < count; k++) {
+			border[k] = cell[positions[k]];
+		}
+		return border;
+	}
+
+	private double distance(int a, int b) {
+		double dx = x[a] - x[b];
+		double dy = y[a] - y[b];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	public int getCellCount() {
+		return cells == null ? 0 : cells.size();
+	}
+
+	/**
+	 * Length the stitching added to the sum of the cell tours, in the units of
+	 * the coordinates
+	 * 
+	 * @return
+	 */
+	public double getStitchCost() {
+		return stitchCost;
+	}
+
+	/**
+	 * Joints searched again at merge time because an earlier merge had cut
+	 * one of their edges
+	 * 
+	 * @return
+	 */
+	public int getResearchedJoints() {
+		return researchedJoints;
+	}
+
+	public double getSplitMillis() {
+		return splitNanos / 1e6;
+	}
+
+	public double getSolveMillis() {
+		return solveNanos / 1e6;
+	}
+
+	public double getStitchMillis() {
+		return stitchNanos / 1e6;
+	}
+
+	/**
+	 * Solves a data file or random points cut into cells and compares the
+	 * tour with one PrimMST solve of all of them, best of RUNS runs of each:
+	 * PartitionedSolver [file or -random n] [cellSize] [threads]
+	 * 
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		PointSet points;
+		int next = 0;
+		if (args.length > 1 && args[0].equals("-random")) {
+			int n = Integer.parseInt(args[1]);
+			double[] x = new double[n];
+			double[] y = new double[n];
+			PipelineBenchmark.uniform(new Random(n), x, y);
+			points = new PointSet(x, y);
+			next = 2;
+		} else {
+			String dataFile = args.length > 0 ? args[0]
+					: "CrimeLatLonXY1990.csv";
+			points = new BatchSolver(dataFile).getPoints();
+			next = 1;
+		}
+		int cellSize = args.length > next ? Integer.parseInt(args[next])
+				: DEFAULT_CELL_SIZE;
+		int threads = args.length > next + 1 ? Integer
+				.parseInt(args[next + 1]) : Runtime.getRuntime()
+				.availableProcessors();
+
+		// Alternated, so neither gets all the JIT warm up
+		long partitionedTime = Long.MAX_VALUE, wholeTime = Long.MAX_VALUE;
+		PartitionedSolver solver = null;
+		int[] tour = null, whole = null;
+		PrimMST primObj = null;
+		for (int run = 0; run < RUNS; run++) {
+			solver = new PartitionedSolver(points);
+			solver.setCellSize(cellSize);
+			solver.setThreads(threads);
+			long time = System.nanoTime();
+			tour = solver.solve();
+			partitionedTime = Math.min(partitionedTime, System.nanoTime()
+					- time);
+
+			primObj = new PrimMST();
+			primObj.getMetrics().setEnabled(false);
+			primObj.setThreads(threads);
+			time = System.nanoTime();
+			primObj.loadGraph(points);
+			primObj.getMST(0);
+			whole = primObj.getHamiltonianCycle(0);
+			wholeTime = Math.min(wholeTime, System.nanoTime() - time);
+		}
+
+		System.out.printf("%d points in %d cells of at most %d on %d "
+				+ "threads: %.2f miles in %.1f ms (last run: split %.1f, "
+				+ "solve %.1f, stitch %.1f, stitching added %.2f miles, %d "
+				+ "joints searched again)%n", points.size(),
+				solver.getCellCount(), cellSize, threads,
+				primObj.getMilesFromPath(tour), partitionedTime / 1e6,
+				solver.getSplitMillis(), solver.getSolveMillis(),
+				solver.getStitchMillis(),
+				solver.getStitchCost() * 0.00018939,
+				solver.getResearchedJoints());
+		System.out.printf("One solve of all points: %.2f miles in %.1f ms%n",
+				primObj.getMilesFromPath(whole), wholeTime / 1e6);
+	}
+}
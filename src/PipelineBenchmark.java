@@ -0,0 +1,327 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks every stage of the {@link PrimMST} pipeline on its own, for a
+ * range of input sizes and three kinds of input: the bundled crime csv,
+ * points spread uniformly and points in gaussian clusters. Every stage gets a
+ * few warm up runs before it is timed, and its results are fed into a sink so
+ * the JIT can not drop the work.
+ * 
+ * Run it with "mvn -Pbench compile exec:java" or straight from the class
+ * files. Arguments (all optional):
+ * 
+ * <pre>
+ * -sizes 100,1000,10000    input sizes
+ * -data csv,uniform,clustered
+ * -warmup 2 -runs 5        iterations per stage
+ * </pre>
+ */
+public class PipelineBenchmark {
+
+	private static final String BUNDLED_CSV = "CrimeLatLonXY1990.csv";
+
+	/**
+	 * Sizes above these limits are skipped for the O(n^2) memory matrix and
+	 * the O(n^2) time Prim engines (HEAP and DENSE)
+	 */
+	private static final int MATRIX_LIMIT = 5000;
+	private static final int DENSE_LIMIT = 20000;
+
+	private static int[] sizes = { 100, 1000, 10000, 50000 };
+	private static String[] dataSets = { "csv", "uniform", "clustered" };
+	private static int warmup = 2;
+	private static int runs = 5;
+
+	/**
+	 * Results go here so the work can not be optimized away
+	 */
+	private static volatile double sink;
+
+	private static File tempDirectory;
+
+	/**
+	 * A stage of the pipeline to be timed. setUp runs before every call and
+	 * is not timed
+	 */
+	private static abstract class Stage {
+		final String name;
+
+		Stage(String name) {
+			this.name = name;
+		}
+
+		void setUp() {
+		}
+
+		abstract double run();
+	}
+
+	public static void main(String[] args) throws IOException {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-sizes")) {
+				String[] parts = args[i + 1].split(",");
+				sizes = new int[parts.length];
+				for (int k = 0; k < parts.length; k++) {
+					sizes[k] = Integer.parseInt(parts[k].trim());
+				}
+			} else if (args[i].equals("-data")) {
+				dataSets = args[i + 1].split(",");
+			} else if (args[i].equals("-warmup")) {
+				warmup = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("-runs")) {
+				runs = Integer.parseInt(args[i + 1]);
+			}
+		}
+
+		tempDirectory = new File(System.getProperty("java.io.tmpdir"),
+				"tsp-bench-" + System.nanoTime());
+		tempDirectory.mkdirs();
+
+		System.out.printf("%-10s %7s  %-28s %12s %12s%n", "data", "n",
+				"stage", "mean ms", "min ms");
+		try {
+			for (String data : dataSets) {
+				for (int n : sizes) {
+					String file = dataFile(data, n);
+					if (file != null) {
+						benchmark(data, n, file);
+					}
+				}
+			}
+		} finally {
+			File[] files = tempDirectory.listFiles();
+			if (files != null) {
+				for (File f : files) {
+					f.delete();
+				}
+			}
+			tempDirectory.delete();
+		}
+		System.out.println("(sink " + sink + ")");
+	}
+
+	/**
+	 * The csv to load for a data set and size, null if there is none (the
+	 * bundled file has fewer rows than asked for)
+	 * 
+	 * @param data
+	 * @param n
+	 * @return
+	 * @throws IOException
+	 */
+	private static String dataFile(String data, int n) throws IOException {
+		if (data.equals("csv")) {
+			return LineIndex.open(BUNDLED_CSV).getRowCount() >= n ? BUNDLED_CSV
+					: null;
+		}
+
+		Random random = new Random(n);
+		double[] x = new double[n];
+		double[] y = new double[n];
+		if (data.equals("uniform")) {
+			uniform(random, x, y);
+		} else if (data.equals("clustered")) {
+			clustered(random, x, y);
+		} else {
+			throw new IllegalArgumentException("Unknown data set " + data);
+		}
+
+		File file = new File(tempDirectory, data + "-" + n + ".csv");
+		writeCsv(file, x, y);
+		return file.getPath();
+	}
+
+	/**
+	 * Points spread evenly over an area the size of the crime data
+	 * 
+	 * @param random
+	 * @param x
+	 * @param y
+	 */
+	public static void uniform(Random random, double[] x, double[] y) {
+		for (int i = 0; i < x.length; i++) {
+			x[i] = 1330000 + random.nextDouble() * 50000;
+			y[i] = 380000 + random.nextDouble() * 50000;
+		}
+	}
+
+	/**
+	 * Points around a few centres, like crimes around hot spots
+	 * 
+	 * @param random
+	 * @param x
+	 * @param y
+	 */
+	public static void clustered(Random random, double[] x, double[] y) {
+		int clusters = Math.max(1, (int) Math.sqrt(x.length) / 4);
+		double[] centreX = new double[clusters];
+		double[] centreY = new double[clusters];
+		uniform(random, centreX, centreY);
+
+		for (int i = 0; i < x.length; i++) {
+			int c = random.nextInt(clusters);
+			x[i] = centreX[c] + random.nextGaussian() * 800;
+			y[i] = centreY[c] + random.nextGaussian() * 800;
+		}
+	}
+
+	/**
+	 * Writes points in the layout of the crime csv (header, X, Y, more
+	 * columns)
+	 * 
+	 * @param file
+	 * @param x
+	 * @param y
+	 * @throws IOException
+	 */
+	public static void writeCsv(File file, double[] x, double[] y)
+			throws IOException {
+		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			out.print("X,Y,Time,Street,Offense,Date,Tract,Lat,Long\n");
+			for (int i = 0; i < x.length; i++) {
+				out.print(x[i] + "," + y[i]
+						+ ",0,SYNTHETIC,THEFT,1/1/1990,0,0,0\n");
+			}
+		}
+	}
+
+	private static void benchmark(String data, int n, final String file) {
+		final int end = n - 1;
+		final PrimMST prim = new PrimMST();
+		prim.setDataFile(file);
+		prim.loadGraph(0, end);
+		prim.getMST(0);
+		final int[] cycle = prim.getHamiltonianCycle(0);
+
+		List<Stage> stages = new ArrayList<>();
+		stages.add(new Stage("getDataFromFile") {
+			double run() {
+				return prim.getDataFromFile(0, end).length;
+			}
+		});
+		stages.add(new Stage("getPointsFromFile") {
+			double run() {
+				return prim.getPointsFromFile().getX(end);
+			}
+		});
+		stages.add(new Stage("loadGraph implicit") {
+			double run() {
+				prim.setGraphMode(GraphMode.IMPLICIT);
+				prim.loadGraph(0, end);
+				return prim.getSize();
+			}
+		});
+		stages.add(new Stage("loadGraph knn") {
+			double run() {
+				prim.setGraphMode(GraphMode.KNN);
+				prim.loadGraph(0, end);
+				return prim.getSize();
+			}
+		});
+		if (n <= MATRIX_LIMIT) {
+			for (final MatrixStorage storage : MatrixStorage.values()) {
+				stages.add(new Stage("loadGraph matrix " + storage) {
+					double run() {
+						prim.setGraphMode(GraphMode.MATRIX);
+						prim.setMatrixStorage(storage);
+						prim.loadGraph(0, end);
+						return prim.getSize();
+					}
+				});
+			}
+		}
+		for (final MSTEngine engine : new MSTEngine[] { MSTEngine.HEAP,
+				MSTEngine.DENSE, MSTEngine.EUCLIDEAN }) {
+			if (engine != MSTEngine.EUCLIDEAN && n > DENSE_LIMIT) {
+				continue;
+			}
+			stages.add(new Stage("getMST " + engine) {
+				void setUp() {
+					if (prim.getGraphMode() != GraphMode.IMPLICIT) {
+						prim.setGraphMode(GraphMode.IMPLICIT);
+						prim.loadGraph(0, end);
+					}
+					prim.setMSTEngine(engine);
+				}
+
+				double run() {
+					prim.getMST(0);
+					return prim.distance[end];
+				}
+			});
+		}
+		stages.add(new Stage("getHamiltonianCycle") {
+			void setUp() {
+				prim.setMSTEngine(MSTEngine.AUTO);
+				prim.getMST(0);
+			}
+
+			double run() {
+				return prim.getHamiltonianCycle(0)[end];
+			}
+		});
+		stages.add(new Stage("getLengthFromPath") {
+			double run() {
+				return prim.getLengthFromPath(cycle).length();
+			}
+		});
+
+		// The curve orders and what they buy: the same EUCLIDEAN MST over
+		// points in Hilbert order, and the curve tour that skips the MST
+		for (final CurveOrder order : new CurveOrder[] { CurveOrder.HILBERT,
+				CurveOrder.MORTON }) {
+			stages.add(new Stage("curveOrder " + order) {
+				double run() {
+					return order.permutation(prim.getPoints())[end];
+				}
+			});
+		}
+		stages.add(new Stage("getMST EUCLIDEAN hilbert") {
+			void setUp() {
+				if (prim.getCurveOrder() != CurveOrder.HILBERT) {
+					prim.setCurveOrder(CurveOrder.HILBERT);
+					prim.loadGraph(0, end);
+				}
+				prim.setMSTEngine(MSTEngine.EUCLIDEAN);
+			}
+
+			double run() {
+				prim.getMST(0);
+				return prim.distance[end];
+			}
+		});
+		stages.add(new Stage("getCurveTour") {
+			double run() {
+				return prim.getCurveTour(0)[end];
+			}
+		});
+
+		for (Stage stage : stages) {
+			stage.setUp();
+			for (int i = 0; i < warmup; i++) {
+				sink += stage.run();
+			}
+
+			long total = 0, min = Long.MAX_VALUE;
+			for (int i = 0; i < runs; i++) {
+				stage.setUp();
+				long time = System.nanoTime();
+				sink += stage.run();
+				time = System.nanoTime() - time;
+				total += time;
+				min = Math.min(min, time);
+			}
+			System.out.printf("%-10s %7d  %-28s %12.3f %12.3f%n", data, n,
+					stage.name, total / 1e6 / runs, min / 1e6);
+		}
+	}
+}
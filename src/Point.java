@@ -13,15 +13,22 @@ public class Point {
 		this.y = y;
 	}
 
-	public double distance(Point obj) {
+	public double getX() {
+		return x;
+	}
 
-		return (Math.sqrt(Math.pow((this.x - obj.x), 2)
-				+ Math.pow((this.y - obj.y), 2)));
+	public double getY() {
+		return y;
+	}
+
+	public double distance(Point obj) {
+		return distance(this, obj);
 	}
 
 	public static double distance(Point obj1, Point obj2) {
-		return (Math.sqrt(Math.pow((obj1.x - obj2.x), 2)
-				+ Math.pow((obj1.y - obj2.y), 2)));
+		double dx = obj1.x - obj2.x;
+		double dy = obj1.y - obj2.y;
+		return Math.sqrt(dx * dx + dy * dy);
 	}
 
 	public static void main(String[] args) {
@@ -0,0 +1,48 @@
+import java.io.IOException;
+
+/**
+ * Something that can read a range of crime records and hand out their
+ * coordinates as primitive arrays. {@link PrimMST} uses it so the same code
+ * works on the csv and on the binary {@link PointStore}
+ */
+public interface PointLoader {
+
+	/**
+	 * Loads the records start to end (both inclusive, 0 is the first record).
+	 * If there are fewer records, fewer are loaded
+	 * 
+	 * @param start
+	 * @param end
+	 * @throws IOException
+	 */
+	void load(int start, int end) throws IOException;
+
+	/**
+	 * X coordinates of the loaded records
+	 * 
+	 * @return
+	 */
+	double[] getXs();
+
+	/**
+	 * Y coordinates of the loaded records
+	 * 
+	 * @return
+	 */
+	double[] getYs();
+
+	/**
+	 * A text line for every loaded record, for printing
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	String[] getRows() throws IOException;
+
+	/**
+	 * Number of loaded records
+	 * 
+	 * @return
+	 */
+	int size();
+}
@@ -0,0 +1,106 @@
+import java.util.Arrays;
+
+/**
+ * A set of points kept as two coordinate arrays instead of one object per
+ * point. Point i is (x[i], y[i]). The distance loops of the TSP code run over
+ * these arrays, which is much friendlier to the cache than following a
+ * reference to a {@link Point} for every vertex.
+ * 
+ * Where only the order of distances matters (nearest neighbours, Prim's
+ * choice of the light edge) use squaredDistance and skip the square root.
+ */
+public class PointSet {
+
+	private double[] x;
+	private double[] y;
+
+	/**
+	 * Wraps the two arrays, which must have the same length. They are not
+	 * copied
+	 * 
+	 * @param x
+	 * @param y
+	 */
+	public PointSet(double[] x, double[] y) {
+		if (x.length != y.length) {
+			throw new IllegalArgumentException("x has " + x.length
+					+ " values but y has " + y.length);
+		}
+		this.x = x;
+		this.y = y;
+	}
+
+	public int size() {
+		return x.length;
+	}
+
+	public double getX(int i) {
+		return x[i];
+	}
+
+	public double getY(int i) {
+		return y[i];
+	}
+
+	/**
+	 * The backing x array, for loops that want to read it directly
+	 * 
+	 * @return
+	 */
+	public double[] getXs() {
+		return x;
+	}
+
+	public double[] getYs() {
+		return y;
+	}
+
+	public double squaredDistance(int i, int j) {
+		double dx = x[i] - x[j];
+		double dy = y[i] - y[j];
+		return dx * dx + dy * dy;
+	}
+
+	public double distance(int i, int j) {
+		return Math.sqrt(squaredDistance(i, j));
+	}
+
+	/**
+	 * Copy of the points from (inclusive) to to (exclusive)
+	 * 
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public PointSet range(int from, int to) {
+		return new PointSet(Arrays.copyOfRange(x, from, to),
+				Arrays.copyOfRange(y, from, to));
+	}
+
+	/**
+	 * Copy of the given points, point i of the result is point ids[i] of this
+	 * set
+	 * 
+	 * @param ids
+	 * @return
+	 */
+	public PointSet subset(int[] ids) {
+		double[] subX = new double[ids.length];
+		double[] subY = new double[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			subX[i] = x[ids[i]];
+			subY[i] = y[ids[i]];
+		}
+		return new PointSet(subX, subY);
+	}
+
+	/**
+	 * Copies point i into a Point object
+	 * 
+	 * @param i
+	 * @return
+	 */
+	public Point getPoint(int i) {
+		return new Point(x[i], y[i]);
+	}
+}
@@ -0,0 +1,433 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A binary, column by column copy of the crime csv so the same data set can be
+ * loaded again without parsing any text. All numbers are little endian:
+ * 
+ * <pre>
+ * header:  magic, version, row count, flags (int each), dictionary offset (long)
+ * columns: X (double per row), Y (double per row),
+ *          Offense (int per row, if flag 1), Tract (int per row, if flag 2)
+ * dictionaries: for Offense then Tract, a count followed by the strings
+ *          (short length + UTF-8 bytes). Code i is the i-th string
+ * </pre>
+ * 
+ * Loading a range maps the file and copies the two coordinate slices straight
+ * into double arrays. Use main (or convert) to turn a csv into a store.
+ */
+public class PointStore implements PointLoader {
+
+	private static final int MAGIC = 0x42505354;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+
+	public static final int HAS_OFFENSE = 1;
+	public static final int HAS_TRACT = 2;
+
+	/**
+	 * Rows converted per pass, so the whole csv never has to be in memory
+	 */
+	private static final int CONVERT_BATCH = 1 << 18;
+
+	private String fileName;
+
+	private double[] xs = new double[0];
+	private double[] ys = new double[0];
+	private int[] offenses = null;
+	private int[] tracts = null;
+	private String[] offenseNames = new String[0];
+	private String[] tractNames = new String[0];
+	private int rowCount = 0;
+	private int flags = 0;
+
+	public PointStore(String fileName) {
+		this.fileName = fileName;
+	}
+
+	/**
+	 * Maps the header, the slices of the columns that belong to the range and
+	 * the dictionaries. Each part is mapped on its own so stores over 2GB can
+	 * be read too
+	 */
+	@Override
+	public void load(int start, int end) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+				FileChannel channel = file.getChannel()) {
+			long dictionaryOffset = readHeader(channel);
+
+			int first = Math.max(0, start);
+			int last = Math.min(end, rowCount - 1);
+			int count = Math.max(0, last - first + 1);
+
+			long column = HEADER_SIZE;
+			xs = new double[count];
+			map(channel, column + 8L * first, 8L * count).asDoubleBuffer()
+					.get(xs);
+			column += 8L * rowCount;
+			ys = new double[count];
+			map(channel, column + 8L * first, 8L * count).asDoubleBuffer()
+					.get(ys);
+			column += 8L * rowCount;
+
+			offenses = null;
+			tracts = null;
+			if ((flags & HAS_OFFENSE) != 0) {
+				offenses = new int[count];
+				map(channel, column + 4L * first, 4L * count).asIntBuffer()
+						.get(offenses);
+				column += 4L * rowCount;
+			}
+			if ((flags & HAS_TRACT) != 0) {
+				tracts = new int[count];
+				map(channel, column + 4L * first, 4L * count).asIntBuffer()
+						.get(tracts);
+			}
+
+			readDictionaries(channel, dictionaryOffset);
+		}
+	}
+
+	/**
+	 * Loads only the given rows, reading each one on its own, so the cost
+	 * follows the number of rows and not the span they cover. The i-th
+	 * loaded row is rows[i]
+	 * 
+	 * @param rows
+	 * @throws IOException
+	 */
+	public void load(int[] rows) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+				FileChannel channel = file.getChannel()) {
+			long dictionaryOffset = readHeader(channel);
+
+			int count = rows.length;
+			xs = new double[count];
+			ys = new double[count];
+			offenses = (flags & HAS_OFFENSE) != 0 ? new int[count] : null;
+			tracts = (flags & HAS_TRACT) != 0 ? new int[count] : null;
+
+			long yColumn = HEADER_SIZE + 8L * rowCount;
+			long offenseColumn = yColumn + 8L * rowCount;
+			long tractColumn = offenses != null ? offenseColumn + 4L
+					* rowCount : offenseColumn;
+			ByteBuffer value = allocate(8);
+			for (int i = 0; i < count; i++) {
+				int row = rows[i];
+				if (row < 0 || row >= rowCount) {
+					throw new IOException("No row " + row + " in " + fileName);
+				}
+				xs[i] = readAt(channel, value, HEADER_SIZE + 8L * row, 8)
+						.getDouble();
+				ys[i] = readAt(channel, value, yColumn + 8L * row, 8)
+						.getDouble();
+				if (offenses != null) {
+					offenses[i] = readAt(channel, value, offenseColumn + 4L
+							* row, 4).getInt();
+				}
+				if (tracts != null) {
+					tracts[i] = readAt(channel, value, tractColumn + 4L * row,
+							4).getInt();
+				}
+			}
+
+			readDictionaries(channel, dictionaryOffset);
+		}
+	}
+
+	/**
+	 * Checks the header and reads the row count and the flags
+	 * 
+	 * @param channel
+	 * @return the dictionary offset
+	 * @throws IOException
+	 */
+	private long readHeader(FileChannel channel) throws IOException {
+		ByteBuffer header = map(channel, 0, HEADER_SIZE);
+		if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+			throw new IOException(fileName + " is not a point store");
+		}
+		rowCount = header.getInt();
+		flags = header.getInt();
+		return header.getLong();
+	}
+
+	private void readDictionaries(FileChannel channel, long dictionaryOffset)
+			throws IOException {
+		ByteBuffer dictionaries = map(channel, dictionaryOffset,
+				channel.size() - dictionaryOffset);
+		offenseNames = (flags & HAS_OFFENSE) != 0 ? readDictionary(dictionaries)
+				: new String[0];
+		tractNames = (flags & HAS_TRACT) != 0 ? readDictionary(dictionaries)
+				: new String[0];
+	}
+
+	/**
+	 * Reads size bytes at the position into the buffer, ready to get
+	 */
+	private static ByteBuffer readAt(FileChannel channel, ByteBuffer buffer,
+			long position, int size) throws IOException {
+		buffer.clear().limit(size);
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				throw new IOException("Unexpected end of point store");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static ByteBuffer map(FileChannel channel, long position,
+			long size) throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+				position, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	private static String[] readDictionary(ByteBuffer buffer) {
+		String[] names = new String[buffer.getInt()];
+		for (int i = 0; i < names.length; i++) {
+			byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+			buffer.get(bytes);
+			names[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return names;
+	}
+
+	/**
+	 * Converts the whole csv into a point store with both attribute columns
+	 * 
+	 * @param csvFile
+	 * @param storeFile
+	 * @throws IOException
+	 */
+	public static void convert(String csvFile, String storeFile)
+			throws IOException {
+		int rows = LineIndex.open(csvFile).getRowCount();
+		int flags = HAS_OFFENSE | HAS_TRACT;
+
+		Map<String, Integer> offenseCodes = new HashMap<>();
+		List<String> offenseList = new ArrayList<>();
+		Map<String, Integer> tractCodes = new HashMap<>();
+		List<String> tractList = new ArrayList<>();
+
+		long xColumn = HEADER_SIZE;
+		long yColumn = xColumn + 8L * rows;
+		long offenseColumn = yColumn + 8L * rows;
+		long tractColumn = offenseColumn + 4L * rows;
+		long dictionaryOffset = tractColumn + 4L * rows;
+
+		try (RandomAccessFile file = new RandomAccessFile(storeFile, "rw");
+				FileChannel channel = file.getChannel()) {
+			file.setLength(0);
+
+			CsvPointLoader csv = new CsvPointLoader(csvFile);
+			for (int start = 0; start < rows; start += CONVERT_BATCH) {
+				csv.load(start, Math.min(rows, start + CONVERT_BATCH) - 1);
+				int count = csv.size();
+				String[] text = csv.getRows();
+
+				ByteBuffer offenseBuffer = allocate(4 * count);
+				ByteBuffer tractBuffer = allocate(4 * count);
+				for (int i = 0; i < count; i++) {
+					String[] fields = text[i].split(",", -1);
+					offenseBuffer.putInt(AttributeIndex.encode(AttributeIndex
+							.field(fields, AttributeIndex.OFFENSE_COLUMN),
+							offenseCodes, offenseList));
+					tractBuffer.putInt(AttributeIndex.encode(AttributeIndex
+							.field(fields, AttributeIndex.TRACT_COLUMN),
+							tractCodes, tractList));
+				}
+
+				ByteBuffer xBuffer = allocate(8 * count);
+				xBuffer.asDoubleBuffer().put(csv.getXs());
+				ByteBuffer yBuffer = allocate(8 * count);
+				yBuffer.asDoubleBuffer().put(csv.getYs());
+
+				writeFully(channel, xBuffer, xColumn + 8L * start);
+				writeFully(channel, yBuffer, yColumn + 8L * start);
+				offenseBuffer.flip();
+				writeFully(channel, offenseBuffer, offenseColumn + 4L * start);
+				tractBuffer.flip();
+				writeFully(channel, tractBuffer, tractColumn + 4L * start);
+			}
+
+			ByteBuffer header = allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(flags)
+					.putLong(dictionaryOffset).flip();
+			writeFully(channel, header, 0);
+
+			ByteBuffer dictionaries = allocate(dictionarySize(offenseList)
+					+ dictionarySize(tractList));
+			putDictionary(dictionaries, offenseList);
+			putDictionary(dictionaries, tractList);
+			dictionaries.flip();
+			writeFully(channel, dictionaries, dictionaryOffset);
+		}
+	}
+
+	private static ByteBuffer allocate(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int dictionarySize(List<String> names) {
+		int size = 4;
+		for (String name : names) {
+			size += 2 + name.getBytes(StandardCharsets.UTF_8).length;
+		}
+		return size;
+	}
+
+	private static void putDictionary(ByteBuffer buffer, List<String> names) {
+		buffer.putInt(names.size());
+		for (String name : names) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			buffer.putShort((short) bytes.length);
+			buffer.put(bytes);
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Builds text rows (X, Y and the attributes that are stored) since the
+	 * store does not keep the original csv lines
+	 */
+	@Override
+	public String[] getRows() {
+		String[] rows = new String[xs.length];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = getRow(i);
+		}
+		return rows;
+	}
+
+	/**
+	 * The text row of the i-th loaded row, as getRows builds it
+	 * 
+	 * @param i
+	 * @return
+	 */
+	private String getRow(int i) {
+		StringBuilder row = new StringBuilder();
+		row.append(xs[i]).append(',').append(ys[i]);
+		if (offenses != null) {
+			row.append(',').append(offenseNames[offenses[i]]);
+		}
+		if (tracts != null) {
+			row.append(',').append(tractNames[tracts[i]]);
+		}
+		return row.toString();
+	}
+
+	@Override
+	public double[] getXs() {
+		return xs;
+	}
+
+	@Override
+	public double[] getYs() {
+		return ys;
+	}
+
+	@Override
+	public int size() {
+		return xs.length;
+	}
+
+	/**
+	 * Total number of rows in the store, known after the first load
+	 * 
+	 * @return
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Dictionary codes of the Offense column for the loaded rows, null if the
+	 * store has no such column
+	 * 
+	 * @return
+	 */
+	public int[] getOffenses() {
+		return offenses;
+	}
+
+	public int[] getTracts() {
+		return tracts;
+	}
+
+	public String[] getOffenseNames() {
+		return offenseNames;
+	}
+
+	public String[] getTractNames() {
+		return tractNames;
+	}
+
+	/**
+	 * Number of rows of a data file, from the header of a point store or from
+	 * the {@link LineIndex} of a csv
+	 * 
+	 * @param dataFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static int countRows(String dataFile) throws IOException {
+		if (!isPointStore(dataFile)) {
+			return LineIndex.open(dataFile).getRowCount();
+		}
+		PointStore store = new PointStore(dataFile);
+		try (RandomAccessFile file = new RandomAccessFile(dataFile, "r");
+				FileChannel channel = file.getChannel()) {
+			store.readHeader(channel);
+		}
+		return store.rowCount;
+	}
+
+	/**
+	 * True if the file starts like a point store
+	 * 
+	 * @param fileName
+	 * @return
+	 */
+	public static boolean isPointStore(String fileName) {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+			if (file.length() < HEADER_SIZE) {
+				return false;
+			}
+			return Integer.reverseBytes(file.readInt()) == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	// Converts a csv into a point store: PointStore input.csv output.tspb
+	public static void main(String[] args) throws IOException {
+		String csvFile = args.length > 0 ? args[0] : "CrimeLatLonXY1990.csv";
+		String storeFile = args.length > 1 ? args[1] : csvFile.replaceFirst(
+				"\\.csv$", "") + ".tspb";
+
+		long time = System.nanoTime();
+		convert(csvFile, storeFile);
+		System.out.println("Wrote " + storeFile + " in "
+				+ (System.nanoTime() - time) / 1000000 + " ms");
+	}
+}
@@ -1,8 +1,5 @@
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * This class holds all the important method to get a minimum spanning tree. It
@@ -14,23 +11,93 @@ import java.util.Scanner;
 public class PrimMST {
 
 	/**
-	 * Contains the rows from file extracted as per the user preference
+	 * Contains the rows from file extracted as per the user preference. Only
+	 * decoded when getFileData is called
 	 */
 	private String[] fileData = null;
+
+	/**
+	 * The file the crime records are read from, either the csv or a binary
+	 * {@link PointStore}
+	 */
+	private String dataFile = "CrimeLatLonXY1990.csv";
+
+	/**
+	 * Loader holding the coordinates of the current range
+	 */
+	private PointLoader loader = null;
+
+	/**
+	 * Space filling curve the loaded points are sorted along, and the loaded
+	 * point of every vertex (null when they are in load order)
+	 */
+	private CurveOrder curveOrder = CurveOrder.NONE;
+	private int[] curvePermutation = null;
+
+	/**
+	 * Set when the records were picked with loadGraph(index, predicate): the
+	 * index and the file row of every vertex
+	 */
+	private AttributeIndex attributeIndex = null;
+	private int[] selectedRows = null;
+	/**
+	 * Graph object. The dense matrix in the MATRIX mode and the nearest
+	 * neighbour lists in the KNN mode. In the IMPLICIT mode there is none and
+	 * the distances come straight from the points array
+	 */
+	private WeightedGraph tspGraph = null;
+
 	/**
-	 * Graph object
+	 * Neighbours per point of the KNN graph
 	 */
-	private Graph tspGraph = null;
+	private int knnNeighbours = KnnGraph.DEFAULT_K;
 
 	/**
-	 * An array of the point class. This will be handy to do distance
+	 * How the MATRIX graph keeps its weights
+	 */
+	private MatrixStorage matrixStorage = MatrixStorage.DOUBLE;
+
+	/**
+	 * How the edge weights are stored. IMPLICIT by default since the matrix
+	 * does not fit in memory for large ranges
+	 */
+	private GraphMode graphMode = GraphMode.IMPLICIT;
+
+	/**
+	 * Which algorithm getMST runs. AUTO looks at the density of the graph
+	 */
+	private MSTEngine mstEngine = MSTEngine.AUTO;
+
+	/**
+	 * Number of threads the parallel stages may use
+	 */
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Time, allocation and counter measurements of the stages
+	 */
+	private SolverMetrics metrics = new SolverMetrics();
+
+	/**
+	 * In AUTO mode, implicit graphs with at least this many vertices use the
+	 * k-d tree engine instead of the O(n^2) dense Prim
+	 */
+	private static final int EUCLIDEAN_THRESHOLD = 1024;
+
+	/**
+	 * The coordinates of the vertices. This will be handy to do distance
 	 * calculation
 	 */
-	private Point[] points = null;
+	private PointSet points = null;
 	/**
 	 * This is the queue that will help us get the light edge from the cut
 	 */
-	private PriorityQueue pq = null;
+	private IndexedMinQueue pq = null;
+
+	/**
+	 * The queue the HEAP engine runs on
+	 */
+	private QueueType queueType = QueueType.DARY;
 
 	/**
 	 * This array will hold the vertex num of the parent (the vertex from where
@@ -49,6 +116,18 @@ public class PrimMST {
 	 */
 	double[] distance = null;
 
+	/**
+	 * The MST as child lists, see buildChildLists
+	 */
+	int[] childStart = null;
+	int[] childIdx = null;
+
+	/**
+	 * Owns the arrays above between runs. They can be longer than the graph,
+	 * only the first getSize() entries belong to it
+	 */
+	private SolverContext context = new SolverContext();
+
 	/**
 	 * This method loads the graph based on the inputs by the user
 	 * 
@@ -56,19 +135,114 @@ public class PrimMST {
 	 * @param end
 	 */
 	public void loadGraph(int start, int end) {
+		long time = metrics.startTime(), bytes = metrics.startBytes();
 
-		fileData = getDataFromFile(start, end);
+		loader = loadRange(start, end);
+		fileData = null;
+		attributeIndex = null;
+		selectedRows = null;
 		points = getPointsFromFile();
+		metrics.record("loadPoints", time, bytes);
+		metrics.set("vertices", points.size());
 
-		int size = end - start + 1;
-		tspGraph = new Graph(size);
+		applyCurveOrder();
+		buildGraph();
+	}
 
-		for (int i = 0; i < size; i++) {
-			for (int j = i + 1; j < size; j++) {
-				tspGraph.addEdge(i, j, Point.distance(points[i], points[j]));
-				tspGraph.addEdge(j, i, Point.distance(points[i], points[j]));
-			}
+	/**
+	 * Uses points that are already in memory instead of reading the data file.
+	 * getFileData has nothing to show afterwards
+	 * 
+	 * @param pointSet
+	 */
+	public void loadGraph(PointSet pointSet) {
+		loader = null;
+		fileData = null;
+		attributeIndex = null;
+		selectedRows = null;
+		points = pointSet;
+		metrics.set("vertices", points.size());
+
+		applyCurveOrder();
+		buildGraph();
+	}
+
+	/**
+	 * Loads only the records matching the predicate. The coordinates come
+	 * from the index, getFileData reads just the matching lines, and vertex
+	 * v is file row getSelectedRows()[getOriginalIndex(v)]
+	 * 
+	 * @param index
+	 * @param predicate
+	 */
+	public void loadGraph(AttributeIndex index, RowPredicate predicate) {
+		long time = metrics.startTime(), bytes = metrics.startBytes();
+		int[] rows = index.select(predicate);
+		PointSet selected = index.getPoints().subset(rows);
+		metrics.record("selectRows", time, bytes);
+
+		loadGraph(selected);
+		attributeIndex = index;
+		selectedRows = rows;
+	}
+
+	/**
+	 * Sorts the loaded points along the curve of the curve order, so vertex v
+	 * is loaded point curvePermutation[v]
+	 */
+	private void applyCurveOrder() {
+		curvePermutation = null;
+		if (curveOrder == CurveOrder.NONE) {
+			return;
+		}
+		long time = metrics.startTime(), bytes = metrics.startBytes();
+		curvePermutation = curveOrder.permutation(points);
+		points = points.subset(curvePermutation);
+		metrics.record("curveOrder", time, bytes);
+	}
+
+	/**
+	 * Builds the graph of the graph mode over the loaded points
+	 */
+	private void buildGraph() {
+		tspGraph = null;
+		if (graphMode == GraphMode.IMPLICIT) {
+			return;
+		}
+
+		long time = metrics.startTime(), bytes = metrics.startBytes();
+		if (graphMode == GraphMode.MATRIX) {
+			Graph matrix = Graph.completeGraph(points, threads, matrixStorage,
+					context.graph);
+			context.graph = matrix;
+			tspGraph = matrix;
+			metrics.set("matrixBytes", matrix.getWeightBytes());
+		} else {
+			KnnGraph knnGraph = KnnGraph.build(points, knnNeighbours, threads);
+			metrics.set("knnRepairEdges", knnGraph.getRepairEdges());
+			tspGraph = knnGraph;
 		}
+		metrics.record("buildGraph", time, bytes);
+		metrics.set("edges", tspGraph.getEdgeCount());
+	}
+
+	/**
+	 * Reads the coordinates of the rows start to end, from the point store if
+	 * the data file is one and from the csv otherwise
+	 * 
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private PointLoader loadRange(int start, int end) {
+		PointLoader rangeLoader = PointStore.isPointStore(dataFile) ? new PointStore(
+				dataFile) : new CsvPointLoader(dataFile);
+		try {
+			rangeLoader.load(start, end);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return rangeLoader;
 	}
 
 	/**
@@ -79,159 +253,719 @@ public class PrimMST {
 	 * @return
 	 */
 	public String[] getDataFromFile(int start, int end) {
-		Scanner scanObj;
-		int pos = 0, counter = 0;
-		String[] data = new String[end - start + 1];
+		return decodeRows(loadRange(start, end));
+	}
 
+	private String[] decodeRows(PointLoader rangeLoader) {
 		try {
-			scanObj = new Scanner(new File("CrimeLatLonXY1990.csv"));
-			scanObj.nextLine();
+			return rangeLoader.getRows();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new String[0];
+		}
+	}
 
-			while (pos < start && scanObj.hasNext()) {
-				scanObj.nextLine();
-				pos++;
-			}
-			while (pos <= end && scanObj.hasNext()) {
-				data[counter] = scanObj.nextLine();
-				counter++;
-				pos++;
+	/**
+	 * Wraps the coordinates parsed by the loader into a point set
+	 * 
+	 * @return
+	 */
+	public PointSet getPointsFromFile() {
+		return new PointSet(loader.getXs(), loader.getYs());
+	}
 
-			}
+	/**
+	 * Generates the MST from the graph and populates the parent, weight array
+	 * 
+	 * @param vertex
+	 */
+	public void getMST(int vertex) {
+		long time = metrics.startTime(), bytes = metrics.startBytes();
+		MSTEngine engine = chooseEngine();
+
+		if (engine == MSTEngine.DENSE) {
+			getDenseMST(vertex);
+		} else if (engine == MSTEngine.EUCLIDEAN) {
+			getEuclideanMST(vertex);
+		} else {
+			getHeapMST(vertex);
+		}
 
-			scanObj.close();
+		metrics.record("getMST", time, bytes);
+		metrics.set("mstEngine", engine.name());
+	}
 
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+	/**
+	 * Prim with the priority queue chosen by setQueueType, for sparse graphs
+	 * 
+	 * @param vertex
+	 */
+	public void getHeapMST(int vertex) {
+		initializeArrays();
+
+		pq.insert(vertex, 0.0);
+		distance[vertex] = 0.0;
+		parent[vertex] = vertex;
+
+		while (!pq.isEmpty()) {
+			visit(pq.deleteMin());
+		}
+
+		if (tspGraph == null) {
+			squaredToDistances();
 		}
 
-		return data;
+		metrics.count("pq.insert", pq.getInsertCount());
+		metrics.count("pq.reduceKey", pq.getReduceKeyCount());
+		metrics.count("pq.deleteMin", pq.getDeleteMinCount());
 	}
 
 	/**
-	 * Populates the point array
+	 * Without a matrix, Prim works on squared distances since they give the
+	 * same tree. This turns the distance array back into edge lengths
+	 */
+	private void squaredToDistances() {
+		int size = getSize();
+		for (int i = 0; i < size; i++) {
+			distance[i] = Math.sqrt(distance[i]);
+		}
+	}
+
+	/**
+	 * Resolves the AUTO engine. The implicit graph is always complete, so it
+	 * gets the dense Prim or the k-d tree engine when it is large. For a
+	 * matrix or KNN graph we compare the heap cost E log V against the V^2 of
+	 * the linear scan
 	 * 
 	 * @return
 	 */
-	public Point[] getPointsFromFile() {
-		String[] row = null;
-		Point[] pointArray = new Point[fileData.length];
-		for (int i = 0; i < fileData.length; i++) {
-			row = fileData[i].split("[,]");
-			pointArray[i] = new Point(Double.parseDouble(row[0].trim()),
-					Double.parseDouble(row[1].trim()));
+	public MSTEngine chooseEngine() {
+		if (mstEngine != MSTEngine.AUTO) {
+			return mstEngine;
+		}
+		if (tspGraph == null) {
+			return getSize() >= EUCLIDEAN_THRESHOLD ? MSTEngine.EUCLIDEAN
+					: MSTEngine.DENSE;
 		}
 
-		return pointArray;
+		double size = tspGraph.getSize();
+		double logSize = Math.max(1.0, Math.log(size) / Math.log(2));
+		double edges = tspGraph.getEdgeCount();
+		return edges * logSize >= size * size / 2 ? MSTEngine.DENSE
+				: MSTEngine.HEAP;
 	}
 
 	/**
-	 * Generates the MST from the graph and populates the parent, weight array
+	 * True if getMST will run on more than one thread. Only the EUCLIDEAN
+	 * engine is parallel, and only for large enough point sets
+	 * 
+	 * @return
+	 */
+	public boolean isMSTParallel() {
+		return threads > 1 && chooseEngine() == MSTEngine.EUCLIDEAN
+				&& getSize() >= EuclideanMST.PARALLEL_THRESHOLD;
+	}
+
+	/**
+	 * Builds the MST straight from the points with {@link EuclideanMST}, on as
+	 * many threads as setThreads allows. The edge weights of the matrix, if
+	 * there is one, are not used since they are the same Euclidean distances
 	 * 
 	 * @param vertex
 	 */
-	public void getMST(int vertex) {
-		initializeArrays();
+	public void getEuclideanMST(int vertex) {
+		int size = getSize();
+		context.resetMST(size);
+		distance = context.distance;
+		marked = context.marked;
 
-		pq.insert(0, 0.0);
-		distance[0] = 0.0;
+		EuclideanMST euclideanMST = new EuclideanMST(points);
+		euclideanMST.build(threads);
+		parent = euclideanMST.getParent(vertex, distance);
 
-		while (!pq.isEmpty()) {
-			visit(pq.deleteMin());
+		for (int i = 0; i < size; i++) {
+			marked[i] = true;
+		}
+	}
+
+	/**
+	 * Prim for dense graphs. Instead of a heap we keep the distance array and
+	 * find the next vertex with a linear scan. The unvisited vertices are kept
+	 * packed at the front of an array so the relax step and the scan for the
+	 * next minimum are done in the same pass. Without a matrix the distances
+	 * are compared squared
+	 * 
+	 * @param vertex
+	 */
+	public void getDenseMST(int vertex) {
+		int size = getSize();
+		context.resetMST(size);
+		distance = context.distance;
+		parent = context.parent;
+		marked = context.marked;
+
+		int[] remaining = context.remaining;
+		int remainingCount = 0;
+		for (int i = 0; i < size; i++) {
+			if (i != vertex) {
+				remaining[remainingCount++] = i;
+			}
 		}
 
+		Graph matrix = tspGraph instanceof Graph ? (Graph) tspGraph : null;
+		boolean lists = tspGraph != null && matrix == null;
+		int[] targets = context.neighbourTargets;
+		double[] weights = context.neighbourWeights;
+		double[] rowBuffer = context.row;
+		double[] xs = points.getXs();
+		double[] ys = points.getYs();
+		distance[vertex] = 0.0;
+		parent[vertex] = vertex;
+		int current = vertex;
+
+		while (current != -1) {
+			marked[current] = true;
+			double fromX = xs[current];
+			double fromY = ys[current];
+			double[] row = matrix == null ? null : matrix.getRow(current,
+					rowBuffer);
+
+			// Neighbour lists are relaxed first, the scan below then only
+			// looks for the minimum
+			if (lists) {
+				int count = tspGraph.getNeighbours(current, targets, weights);
+				for (int k = 0; k < count; k++) {
+					int i = targets[k];
+					if (!marked[i] && weights[k] < distance[i]) {
+						distance[i] = weights[k];
+						parent[i] = current;
+					}
+				}
+			}
+
+			int minPos = -1;
+			double minDistance = Double.POSITIVE_INFINITY;
+
+			for (int k = 0; k < remainingCount; k++) {
+				int i = remaining[k];
+				double weight;
+				if (lists) {
+					weight = Double.POSITIVE_INFINITY;
+				} else if (row == null) {
+					double dx = xs[i] - fromX;
+					double dy = ys[i] - fromY;
+					weight = dx * dx + dy * dy;
+				} else {
+					weight = row[i];
+				}
+				if (weight < distance[i]) {
+					distance[i] = weight;
+					parent[i] = current;
+				}
+				if (distance[i] < minDistance) {
+					minDistance = distance[i];
+					minPos = k;
+				}
+			}
+
+			// Nothing reachable is left (only possible for a sparse graph)
+			if (minPos == -1) {
+				break;
+			}
+			current = remaining[minPos];
+			remaining[minPos] = remaining[--remainingCount];
+		}
+
+		if (tspGraph == null) {
+			squaredToDistances();
+		}
 	}
 
 	public void visit(int vertex) {
 		// true means visted
 		marked[vertex] = true;
-		int[] neighbours = tspGraph.getNeighbours(vertex);
-		double[][] adjMatrix = tspGraph.getAdjMatrix();
 
-		for (int i = 0; i < neighbours.length; i++) {
+		if (tspGraph == null) {
+			visitImplicit(vertex);
+			return;
+		}
+
+		// The neighbours are copied into buffers of the context, so nothing
+		// is allocated per vertex
+		int[] targets = context.neighbourTargets;
+		double[] weights = context.neighbourWeights;
+		int count = tspGraph.getNeighbours(vertex, targets, weights);
+
+		for (int k = 0; k < count; k++) {
+			int i = targets[k];
 
-			if (marked[neighbours[i]] == true) {
+			if (marked[i] == true) {
 				continue;
 			}
-			if (adjMatrix[vertex][neighbours[i]] < distance[neighbours[i]]) {
+			if (weights[k] < distance[i]) {
 				// Current edge has a smaller distance than the edge distance in
 				// the array
-				distance[neighbours[i]] = adjMatrix[vertex][neighbours[i]];
-				parent[neighbours[i]] = vertex;
+				distance[i] = weights[k];
+				parent[i] = vertex;
 
-				if (pq.contains(neighbours[i])) {
-					pq.reduceKey(neighbours[i], distance[neighbours[i]]);
+				if (pq.contains(i)) {
+					pq.reduceKey(i, distance[i]);
 				} else {
-					pq.insert(neighbours[i], distance[neighbours[i]]);
+					pq.insert(i, distance[i]);
 				}
 			}
 		}
 	}
 
 	/**
-	 * Populates all the required arrays
+	 * Same as visit but for the IMPLICIT mode. Every other vertex is a
+	 * neighbour in the complete graph, so we walk all of them and compute the
+	 * edge weight from the points. The keys are squared distances
+	 * 
+	 * @param vertex
+	 */
+	private void visitImplicit(int vertex) {
+		int size = points.size();
+
+		for (int i = 0; i < size; i++) {
+
+			if (marked[i] == true) {
+				continue;
+			}
+			double weight = points.squaredDistance(vertex, i);
+			if (weight < distance[i]) {
+				distance[i] = weight;
+				parent[i] = vertex;
+
+				if (pq.contains(i)) {
+					pq.reduceKey(i, weight);
+				} else {
+					pq.insert(i, weight);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Populates all the required arrays, reusing the ones of the context
 	 */
 	public void initializeArrays() {
+		context.resetMST(getSize());
 
-		distance = new double[tspGraph.getSize()];
-		parent = new int[tspGraph.getSize()];
-		marked = new boolean[tspGraph.getSize()];
-		pq = new PriorityQueue(tspGraph.getSize());
+		distance = context.distance;
+		parent = context.parent;
+		marked = context.marked;
+		pq = context.queue(queueType, getSize());
+	}
 
-		for (int i = 0; i < tspGraph.getSize(); i++) {
-			distance[i] = Double.POSITIVE_INFINITY;
+	/**
+	 * Builds the child lists of the MST from the parent array in compressed
+	 * form: the children of vertex v are childIdx[childStart[v]] up to
+	 * childIdx[childStart[v + 1] - 1], in increasing order
+	 * 
+	 * @param root
+	 */
+	public void buildChildLists(int root) {
+		int size = getSize();
+		context.resetWalk(size);
+		childStart = context.childStart;
+		childIdx = context.childIdx;
+
+		// Count the children first, then turn the counts into offsets
+		for (int i = 0; i < size; i++) {
+			if (i != root && marked[i]) {
+				childStart[parent[i] + 1]++;
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			childStart[i + 1] += childStart[i];
+		}
+
+		int[] fill = context.childFill;
+		for (int i = 0; i < size; i++) {
+			if (i != root && marked[i]) {
+				int p = parent[i];
+				childIdx[childStart[p] + fill[p]++] = i;
+			}
 		}
 	}
 
 	/**
-	 * Generates the Hamiltonian cycle from parent array
+	 * Generates the Hamiltonian cycle from parent array. This is a pre order
+	 * walk of the MST using the child lists, so it is linear in the number of
+	 * vertices. The root is repeated at the end to close the cycle. The
+	 * returned array is the only thing allocated
 	 * 
 	 * @param root
 	 * @return
 	 */
-	public List<Integer> getHamiltonianCycle(int root) {
-		List<Integer> pathList = new ArrayList<>();
-		Stack stack = new Stack(tspGraph.getSize());
+	public int[] getHamiltonianCycle(int root) {
+		long time = metrics.startTime(), bytes = metrics.startBytes();
+		buildChildLists(root);
+
+		int[] path = context.path;
+		int count = 0;
+		boolean[] visited = context.visited;
+		Stack stack = context.stack;
 
-		pathList.add(root);
 		stack.push(root);
 
 		while (!stack.isEmpty()) {
-			boolean pushedSomething = false;
-
-			for (int i = 0; i < parent.length; i++) {
+			int vertex = stack.pop();
+			if (visited[vertex]) {
+				continue;
+			}
+			visited[vertex] = true;
+			path[count++] = vertex;
 
-				if (parent[i] == stack.peek() && !pathList.contains(i)) {
-					stack.push(i);
-					pathList.add(i);
-					pushedSomething = true;
-					break;
+			// Push in reverse so the smallest child is walked first
+			for (int k = childStart[vertex + 1] - 1; k >= childStart[vertex]; k--) {
+				if (!visited[childIdx[k]]) {
+					stack.push(childIdx[k]);
 				}
 			}
+		}
+
+		path[count++] = root;
+		int[] cycle = Arrays.copyOf(path, count);
+		metrics.record("getHamiltonianCycle", time, bytes);
+		return cycle;
+
+	}
+
+	/**
+	 * Generates a Christofides style cycle from the parent array: the MST plus
+	 * a greedy matching of its odd degree vertices, with the Euler circuit
+	 * shortcut into a cycle. getMST has to be called first with the same root
+	 * 
+	 * @param root
+	 * @return
+	 */
+	public int[] getChristofidesCycle(int root) {
+		long time = metrics.startTime(), bytes = metrics.startBytes();
+		int[] cycle = new ChristofidesTour(points).build(parent, root);
+		metrics.record("getChristofidesCycle", time, bytes);
+		return cycle;
+	}
+
+	/**
+	 * Shortens a cycle from getHamiltonianCycle with 2-opt and Or-opt moves,
+	 * see {@link TourImprover}
+	 * 
+	 * @param cycle
+	 * @param timeBudgetMillis
+	 *            0 or less to run until no move helps
+	 * @return
+	 */
+	public int[] improveTour(int[] cycle, long timeBudgetMillis) {
+		long time = metrics.startTime(), bytes = metrics.startBytes();
+		TourImprover improver = new TourImprover(points);
+		int[] improved = improver.improve(cycle, timeBudgetMillis);
+		metrics.record("improveTour", time, bytes);
+		metrics.count("twoOptMoves", improver.getTwoOptMoves());
+		metrics.count("orOptMoves", improver.getOrOptMoves());
+		return improved;
+	}
 
-			if (pushedSomething == false) {
-				stack.pop();
+	/**
+	 * The tour that visits the vertices in the order of a space filling curve,
+	 * without building an MST. O(n log n) and a lot longer than the other
+	 * tours, for when an answer is needed right away. With a curve order set
+	 * the vertices already are in that order, otherwise the Hilbert order is
+	 * computed
+	 * 
+	 * @param root
+	 * @return the closed tour, starting and ending at root
+	 */
+	public int[] getCurveTour(int root) {
+		long time = metrics.startTime(), bytes = metrics.startBytes();
+		int size = getSize();
+		int[] order;
+		if (curvePermutation != null) {
+			order = new int[size];
+			for (int v = 0; v < size; v++) {
+				order[v] = v;
 			}
+		} else {
+			order = CurveOrder.HILBERT.permutation(points);
+		}
+
+		int at = 0;
+		while (at < size && order[at] != root) {
+			at++;
+		}
+		int[] tour = new int[size + 1];
+		for (int k = 0; k < size; k++) {
+			tour[k] = order[(at + k) % size];
 		}
+		tour[size] = root;
+		metrics.record("getCurveTour", time, bytes);
+		return tour;
+	}
+
+	/**
+	 * Loaded point (0 is the first one loaded) of a vertex. The same number
+	 * unless a curve order is set
+	 * 
+	 * @param vertex
+	 * @return
+	 */
+	public int getOriginalIndex(int vertex) {
+		return curvePermutation == null ? vertex : curvePermutation[vertex];
+	}
 
-		pathList.add(root);
-		return pathList;
+	/**
+	 * A path of vertices as loaded point numbers, to match it up with
+	 * getFileData
+	 * 
+	 * @param path
+	 * @return
+	 */
+	public int[] toOriginalOrder(int[] path) {
+		int[] original = new int[path.length];
+		for (int i = 0; i < path.length; i++) {
+			original[i] = getOriginalIndex(path[i]);
+		}
+		return original;
+	}
 
+	public String getLengthFromPath(int[] path) {
+		return String.format("%.2f", getMilesFromPath(path));
 	}
 
-	public String getLengthFromPath(List<Integer> list) {
+	/**
+	 * Length of the path in miles (the coordinates are in feet)
+	 * 
+	 * @param path
+	 * @return
+	 */
+	public double getMilesFromPath(int[] path) {
 		double sum = 0.0;
 
-		for (int i = 0; i < list.size() - 1; i++) {
-			sum = sum
-					+ Point.distance(points[list.get(i)],
-							points[list.get(i + 1)]);
+		for (int i = 0; i < path.length - 1; i++) {
+			sum = sum + points.distance(path[i], path[i + 1]);
 		}
 
-		return String.format("%.2f", sum * (0.00018939));
+		metrics.set("tourLengthMiles", sum * (0.00018939));
+		return sum * (0.00018939);
+	}
+
+	/**
+	 * The coordinates of the loaded vertices
+	 * 
+	 * @return
+	 */
+	public PointSet getPoints() {
+		return points;
 	}
 
+	/**
+	 * The loaded records in the order they were loaded (file order), not in
+	 * vertex order. With a curve order, vertex v is record
+	 * getOriginalIndex(v)
+	 * 
+	 * @return
+	 */
 	public String[] getFileData() {
+		if (fileData == null && loader != null) {
+			fileData = decodeRows(loader);
+		} else if (fileData == null && attributeIndex != null) {
+			try {
+				fileData = attributeIndex.getRows(selectedRows);
+			} catch (IOException e) {
+				e.printStackTrace();
+				fileData = new String[0];
+			}
+		}
 		return fileData;
 	}
 
+	/**
+	 * File rows of the records picked by loadGraph(index, predicate), in file
+	 * order. Null otherwise
+	 * 
+	 * @return
+	 */
+	public int[] getSelectedRows() {
+		return selectedRows;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Sets how many threads the parallel stages (building the matrix, the
+	 * EUCLIDEAN MST engine) may use. 1 runs everything on the calling thread
+	 * 
+	 * @param threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Measurements of the stages run so far
+	 * 
+	 * @return
+	 */
+	public SolverMetrics getMetrics() {
+		return metrics;
+	}
+
+	public SolverContext getContext() {
+		return context;
+	}
+
+	/**
+	 * Uses the buffers of the given context from the next run on, so several
+	 * PrimMST objects on one thread can share them. A context must not be used
+	 * by two threads at the same time
+	 * 
+	 * @param context
+	 */
+	public void setContext(SolverContext context) {
+		this.context = context;
+	}
+
+	public String getDataFile() {
+		return dataFile;
+	}
+
+	/**
+	 * Sets the csv or point store file used by the next loadGraph call
+	 * 
+	 * @param dataFile
+	 */
+	public void setDataFile(String dataFile) {
+		this.dataFile = dataFile;
+	}
+
+	/**
+	 * Number of vertices in the loaded graph
+	 * 
+	 * @return
+	 */
+	public int getSize() {
+		return points == null ? 0 : points.size();
+	}
+
+	/**
+	 * A copy of the MST of the last getMST: parent[v] is the vertex v was
+	 * reached from. The working array is reused by the next run
+	 * 
+	 * @return
+	 */
+	public int[] getParent() {
+		return Arrays.copyOf(parent, getSize());
+	}
+
+	/**
+	 * Number of records in the data file
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public int getRowCount() throws IOException {
+		return PointStore.countRows(dataFile);
+	}
+
+	public MSTEngine getMSTEngine() {
+		return mstEngine;
+	}
+
+	/**
+	 * Forces an MST algorithm. AUTO (the default) picks it from the density of
+	 * the graph
+	 * 
+	 * @param mstEngine
+	 */
+	public void setMSTEngine(MSTEngine mstEngine) {
+		this.mstEngine = mstEngine;
+	}
+
+	public QueueType getQueueType() {
+		return queueType;
+	}
+
+	/**
+	 * Selects the priority queue of the HEAP engine. DARY (the default) is the
+	 * 4-ary heap, PAIRING the pairing heap
+	 * 
+	 * @param queueType
+	 */
+	public void setQueueType(QueueType queueType) {
+		this.queueType = queueType;
+	}
+
+	public int getKnnNeighbours() {
+		return knnNeighbours;
+	}
+
+	/**
+	 * Neighbours per point of the graph built in the KNN mode
+	 * 
+	 * @param knnNeighbours
+	 */
+	public void setKnnNeighbours(int knnNeighbours) {
+		this.knnNeighbours = Math.max(1, knnNeighbours);
+	}
+
+	public MatrixStorage getMatrixStorage() {
+		return matrixStorage;
+	}
+
+	/**
+	 * Selects how the graph of the MATRIX mode keeps its weights. FLOAT and
+	 * OFF_HEAP take a quarter of the memory of DOUBLE (the default)
+	 * 
+	 * @param matrixStorage
+	 */
+	public void setMatrixStorage(MatrixStorage matrixStorage) {
+		this.matrixStorage = matrixStorage;
+	}
+
+	public GraphMode getGraphMode() {
+		return graphMode;
+	}
+
+	/**
+	 * Selects how the graph is stored on the next loadGraph call. MATRIX is
+	 * only meant for small ranges, KNN only keeps nearest neighbour edges
+	 * 
+	 * @param graphMode
+	 */
+	public void setGraphMode(GraphMode graphMode) {
+		this.graphMode = graphMode;
+	}
+
+	public CurveOrder getCurveOrder() {
+		return curveOrder;
+	}
+
+	/**
+	 * Sorts the points along a space filling curve on the next loadGraph
+	 * call, so the later stages read nearby memory. NONE (the default) keeps
+	 * the load order. Vertex numbers then follow the curve, getOriginalIndex
+	 * maps them back
+	 * 
+	 * @param curveOrder
+	 */
+	public void setCurveOrder(CurveOrder curveOrder) {
+		this.curveOrder = curveOrder;
+	}
+
+	/**
+	 * The settings that change which MST is found, as a string for the keys
+	 * of a {@link TourCache}. The thread count and the context are left out,
+	 * they only change how fast
+	 * 
+	 * @return
+	 */
+	public String getOptionsKey() {
+		return "mst=" + mstEngine + ",graph=" + graphMode + ",k="
+				+ knnNeighbours + ",storage=" + matrixStorage + ",queue="
+				+ queueType + ",curve=" + curveOrder;
+	}
+
 }
@@ -1,44 +1,97 @@
+import java.util.NoSuchElementException;
+import java.util.Random;
+
 /**
- * A Priority queue, implemented using reduce-key heaps.
+ * A Priority queue, implemented as an indexed d-ary min heap with reduce-key.
+ * The items are the indices 0 .. limit - 1, each with a double key.
+ * 
+ * Every heap node has d children instead of two. The heap is then only
+ * log_d(n) levels deep, so inserts and reduce-keys (which sift up, and are
+ * the common operation in Prim) touch fewer nodes, while deleteMin looks at
+ * d children per level that lie next to each other in memory. 4 is the
+ * default, it is a good trade off for Prim on the cache lines of today.
+ * 
+ * The key of every heap slot is kept next to the index in its own array, so
+ * the sifts compare keys without jumping through the index first.
  * 
  * @author Nikhil
  * 
  */
 
-public class PriorityQueue {
+public class PriorityQueue implements IndexedMinQueue {
+
+	public static final int DEFAULT_ARITY = 4;
 
 	/**
 	 * int limit: This is not an auto-restructuring queue. So the limit needs to
-	 * be defined at initialization time.
+	 * be defined at initialization time. Indices must be below it
 	 */
 	private int limit;
 
+	/**
+	 * Number of children of every heap node
+	 */
+	private int arity;
+
 	/**
 	 * int currSize: Keeps a count of elements in the heap
 	 */
-	private int currSize = -1;
+	private int currSize = 0;
 
 	/**
-	 * This is the actual heap but it only contains the indices, not the weight
+	 * This is the actual heap but it only contains the indices. The children
+	 * of slot k are the slots arity * k + 1 up to arity * k + arity
 	 */
 	private int[] pq;
 
 	/**
-	 * This contains the weight of the index. eg keys[1]= 2.3 would mean that
-	 * index 1 has a key of 2.3 That index 1 can be anywhere on the heap. To
-	 * find where exactly it is on the heap we use indexLocOnHeap[1]
+	 * The key of the index in the same slot of pq. eg pq[3] = 1 and keys[3] =
+	 * 2.3 would mean that index 1 has a key of 2.3
 	 */
 	private double[] keys;
+
 	/**
-	 * This is a useful array that holds the location of the index in the heap.
-	 * eg. indexLocOnHeap[1]=4 means that index 1 is the 5th( pq[4] ) item in
-	 * the array (since arrays start from 0) In other words:
-	 * pq[indexLocOnHeap[0]] = indexLocOnHeap[pq[0]]
+	 * This is a useful array that holds the location of the index in the heap,
+	 * -1 when it is not on the heap. eg. indexLocOnHeap[1]=4 means that index 1
+	 * is the 5th( pq[4] ) item in the array (since arrays start from 0) In
+	 * other words: pq[indexLocOnHeap[i]] == i
 	 */
 	private int[] indexLocOnHeap;
 
+	/**
+	 * Number of calls of each operation, for {@link SolverMetrics}
+	 */
+	private long insertCount = 0;
+	private long reduceKeyCount = 0;
+	private long deleteMinCount = 0;
+
+	/**
+	 * A 4-ary heap for the indices 0 .. limit - 1
+	 * 
+	 * @param limit
+	 */
 	public PriorityQueue(int limit) {
+		this(limit, DEFAULT_ARITY);
+	}
+
+	/**
+	 * A heap for the indices 0 .. limit - 1 where every node has arity
+	 * children
+	 * 
+	 * @param limit
+	 * @param arity
+	 *            2 or more
+	 */
+	public PriorityQueue(int limit, int arity) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("Negative limit " + limit);
+		}
+		if (arity < 2) {
+			throw new IllegalArgumentException("Arity must be at least 2, not "
+					+ arity);
+		}
 		this.limit = limit;
+		this.arity = arity;
 		pq = new int[limit];
 		keys = new double[limit];
 		indexLocOnHeap = new int[limit];
@@ -50,146 +103,333 @@ public class PriorityQueue {
 	}
 
 	/**
-	 * Insert the value in the last index of the array and then heapify up (Min
+	 * Insert the value in the last slot of the heap and then heapify up (Min
 	 * heap)
 	 * 
 	 * @param i
 	 * @param value
+	 * @throws IllegalArgumentException
+	 *             if i is out of range or already on the heap, or the value is
+	 *             NaN
+	 * @throws IllegalStateException
+	 *             if the heap is full
 	 */
 	public void insert(int i, double value) {
-		currSize++;
-		if (!isFull()) {
-			pq[currSize] = i;
-			indexLocOnHeap[i] = currSize;
-			keys[i] = value;
-			heapifyUp(currSize);
+		checkIndex(i);
+		if (indexLocOnHeap[i] != -1) {
+			throw new IllegalArgumentException("Index " + i
+					+ " is already on the heap");
 		}
+		if (value != value) {
+			throw new IllegalArgumentException("NaN key for index " + i);
+		}
+		if (isFull()) {
+			throw new IllegalStateException("Heap is full (" + limit + ")");
+		}
+		insertCount++;
+		heapifyUp(currSize++, i, value);
 	}
 
 	/**
-	 * Method to sift up. This moves the smallest value in the pq array up to
-	 * the top also recording the changes in pq array in the indexOnHeap array
-	 * to maintain state
+	 * Method to sift up. Moves the index with the given key up from the empty
+	 * slot until its parent is not larger, shifting the parents down into the
+	 * hole on the way and recording every move in indexLocOnHeap
 	 * 
+	 * @param slot
 	 * @param index
+	 * @param key
 	 */
-	private void heapifyUp(int index) {
-
-		if (index >= 0) {
-
-			while (index >= 0 && keys[pq[index]] < keys[pq[getParent(index)]]) {
-
-				swap(index, getParent(index));
-				index = getParent(index); // Move up
+	private void heapifyUp(int slot, int index, double key) {
+		while (slot > 0) {
+			int parent = getParent(slot);
+			if (keys[parent] <= key) {
+				break;
 			}
+			place(slot, pq[parent], keys[parent]);
+			slot = parent; // Move up
 		}
-
+		place(slot, index, key);
 	}
 
 	/**
-	 * This is opposite to hepaifyUp and will siftDown. This is used when we
-	 * changes the index of the pq array.
+	 * This is opposite to heapifyUp and will sift down: moves the index with
+	 * the given key down from the empty slot while its smallest child is
+	 * smaller. Stops on equal keys, so it always ends
 	 * 
+	 * @param slot
 	 * @param index
+	 * @param key
 	 */
-	private void heapifyDown(int index) {
-
-		if (index >= 0) {
-
-			while (2 * index + 1 <= currSize) {
-				int left = 2 * index + 1;
-				int right = 2 * index + 2;
-				int switchWith = left;
-				if (left < currSize && (keys[pq[left]] > keys[pq[right]])) {
-					// Right child is smaller child. Swap with right;
-					switchWith = right;
-				}
-				if (keys[pq[index]] > keys[pq[switchWith]]) {
-					// Switch here
-					swap(index, switchWith);
-					index = switchWith;
-				} else if (keys[pq[index]] < keys[pq[switchWith]]) {
-					// Heap is settled
-					break;
+	private void heapifyDown(int slot, int index, double key) {
+		while (true) {
+			int first = arity * slot + 1;
+			if (first >= currSize) {
+				break;
+			}
+			int last = Math.min(first + arity, currSize);
+
+			int minChild = first;
+			double minKey = keys[first];
+			for (int child = first + 1; child < last; child++) {
+				if (keys[child] < minKey) {
+					minKey = keys[child];
+					minChild = child;
 				}
+			}
 
+			if (minKey >= key) {
+				// Heap is settled
+				break;
 			}
+			place(slot, pq[minChild], minKey);
+			slot = minChild;
 		}
-
+		place(slot, index, key);
 	}
 
 	/**
-	 * Private helper method to get the parent from the child node index
+	 * Private helper method to get the parent from the child node slot
+	 * 
 	 * @param i
 	 * @return
 	 */
 	private int getParent(int i) {
-		return (i / 2);
+		return (i - 1) / arity;
 	}
-	
+
 	/**
-	 * Actually does the swapping of the two indices on pq array. Also records the changes in indexOnHeap array
-	 * @param child
-	 * @param parent
+	 * Puts the index with its key into a slot of the heap and records where it
+	 * is
+	 * 
+	 * @param slot
+	 * @param index
+	 * @param key
 	 */
-	public void swap(int child, int parent) {
-		int temp = pq[child];
-		pq[child] = pq[parent];
-		pq[parent] = temp;
+	private void place(int slot, int index, double key) {
+		pq[slot] = index;
+		keys[slot] = key;
+		indexLocOnHeap[index] = slot;
+	}
 
-		// Update this switch in indexlocOnHeap
-		indexLocOnHeap[pq[parent]] = parent;
-		indexLocOnHeap[pq[child]] = child;
+	private void checkIndex(int i) {
+		if (i < 0 || i >= limit) {
+			throw new IllegalArgumentException("Index " + i
+					+ " is outside 0.." + (limit - 1));
+		}
 	}
 
 	/**
-	 * Checks if the node is on the heap or not
+	 * Checks if the node is on the heap or not. Indices out of range are not
 	 */
 	public boolean contains(int i) {
-		return indexLocOnHeap[i] != -1 ? true : false;
+		return i >= 0 && i < limit && indexLocOnHeap[i] != -1;
 	}
 
 	/**
-	 * Delete the min value based on the key (weight of edge) from pq array
+	 * The key of an index on the heap
+	 * 
+	 * @param i
 	 * @return
 	 */
-	public int deleteMin() {
-		int minIndex = -1;
-		if (!isEmpty()) {
-			minIndex = pq[0];
-			swap(0, currSize--);
-			heapifyDown(0);
-			indexLocOnHeap[minIndex] = -1;
+	public double getKey(int i) {
+		if (!contains(i)) {
+			throw new NoSuchElementException("Index " + i
+					+ " is not on the heap");
+		}
+		return keys[indexLocOnHeap[i]];
+	}
 
-			// A few more pre-cautionary steps can be added
+	/**
+	 * The index with the smallest key, without removing it
+	 * 
+	 * @return
+	 */
+	public int peekMin() {
+		if (isEmpty()) {
+			throw new NoSuchElementException("Heap is empty");
 		}
+		return pq[0];
+	}
 
+	/**
+	 * Delete the min value based on the key (weight of edge) from pq array
+	 * 
+	 * @return the index with the smallest key
+	 * @throws NoSuchElementException
+	 *             if the heap is empty
+	 */
+	public int deleteMin() {
+		if (isEmpty()) {
+			throw new NoSuchElementException("Heap is empty");
+		}
+		deleteMinCount++;
+		int minIndex = pq[0];
+		indexLocOnHeap[minIndex] = -1;
+
+		currSize--;
+		if (currSize > 0) {
+			// The last slot fills the hole at the top
+			heapifyDown(0, pq[currSize], keys[currSize]);
+		}
 		return minIndex;
 	}
 
 	/**
-	 * Method to change the index (parent) in pq array
+	 * Lowers the key of an index that is on the heap
+	 * 
 	 * @param i
 	 * @param value
+	 * @throws NoSuchElementException
+	 *             if i is not on the heap
+	 * @throws IllegalArgumentException
+	 *             if the value is larger than the current key or NaN
 	 */
 	public void reduceKey(int i, double value) {
-
-		if (i >= 0 && contains(i)) {
-			keys[i] = value;
-			heapifyUp(indexLocOnHeap[i]);
+		if (!contains(i)) {
+			throw new NoSuchElementException("Index " + i
+					+ " is not on the heap");
 		}
+		int slot = indexLocOnHeap[i];
+		if (!(value <= keys[slot])) {
+			throw new IllegalArgumentException("New key " + value
+					+ " of index " + i + " is larger than " + keys[slot]);
+		}
+		reduceKeyCount++;
+		heapifyUp(slot, i, value);
+	}
 
+	/**
+	 * Empties the queue so it can be used again without allocating. Only the
+	 * indices still on the heap have to be cleared, the rest are already -1
+	 */
+	public void reset() {
+		for (int k = 0; k < currSize; k++) {
+			indexLocOnHeap[pq[k]] = -1;
+		}
+		currSize = 0;
+		insertCount = 0;
+		reduceKeyCount = 0;
+		deleteMinCount = 0;
 	}
 
 	public boolean isEmpty() {
-		return currSize == -1 ? true : false;
+		return currSize == 0;
 	}
 
 	public boolean isFull() {
-		return currSize == limit ? true : false;
+		return currSize == limit;
+	}
+
+	public int size() {
+		return currSize;
+	}
+
+	public int getArity() {
+		return arity;
+	}
+
+	public long getInsertCount() {
+		return insertCount;
 	}
 
-	//Test class for reduce key min heap
+	public long getReduceKeyCount() {
+		return reduceKeyCount;
+	}
+
+	public long getDeleteMinCount() {
+		return deleteMinCount;
+	}
+
+	/**
+	 * Runs random inserts, reduce-keys and deleteMins against
+	 * java.util.PriorityQueue, which does not support reduce-key, so there
+	 * the old entry stays behind and is skipped when it comes out. Keys are
+	 * drawn from a small range to get many equal keys. Throws on the first
+	 * difference
+	 * 
+	 * @param arity
+	 * @param limit
+	 * @param operations
+	 * @param random
+	 */
+	static void propertyTest(int arity, int limit, int operations,
+			Random random) {
+		PriorityQueue heap = new PriorityQueue(limit, arity);
+		java.util.PriorityQueue<double[]> reference = new java.util.PriorityQueue<>(
+				16, new java.util.Comparator<double[]>() {
+					@Override
+					public int compare(double[] a, double[] b) {
+						return Double.compare(a[0], b[0]);
+					}
+				});
+		// The current key of every index, NaN when it is not queued
+		double[] current = new double[limit];
+		java.util.Arrays.fill(current, Double.NaN);
+
+		for (int op = 0; op < operations; op++) {
+			int i = random.nextInt(limit);
+			int choice = random.nextInt(3);
+
+			if (choice == 0 && !heap.contains(i)) {
+				double key = random.nextInt(50);
+				heap.insert(i, key);
+				reference.add(new double[] { key, i });
+				current[i] = key;
+			} else if (choice == 1 && heap.contains(i)) {
+				double key = current[i] - random.nextInt(10);
+				heap.reduceKey(i, key);
+				reference.add(new double[] { key, i });
+				current[i] = key;
+			} else if (!heap.isEmpty()) {
+				// Skip entries whose key has been reduced since
+				double[] top = reference.poll();
+				while (top[0] != current[(int) top[1]]) {
+					top = reference.poll();
+				}
+				reference.add(top);
+
+				int min = heap.deleteMin();
+				if (current[min] != top[0]) {
+					throw new IllegalStateException("Arity " + arity
+							+ ": deleteMin gave key " + current[min]
+							+ ", expected " + top[0]);
+				}
+				current[min] = Double.NaN;
+			}
+
+			int queued = 0;
+			for (int k = 0; k < limit; k++) {
+				if (current[k] == current[k]) {
+					queued++;
+					if (heap.getKey(k) != current[k]) {
+						throw new IllegalStateException("Arity " + arity
+								+ ": wrong key for index " + k);
+					}
+				} else if (heap.contains(k)) {
+					throw new IllegalStateException("Arity " + arity
+							+ ": index " + k + " should not be queued");
+				}
+			}
+			if (queued != heap.size()) {
+				throw new IllegalStateException("Arity " + arity
+						+ ": size " + heap.size() + ", expected " + queued);
+			}
+		}
+
+		// Drain, the keys must come out in order
+		double last = Double.NEGATIVE_INFINITY;
+		while (!heap.isEmpty()) {
+			double key = heap.getKey(heap.peekMin());
+			if (key < last) {
+				throw new IllegalStateException("Arity " + arity
+						+ ": keys out of order");
+			}
+			last = key;
+			heap.deleteMin();
+		}
+	}
+
+	// Test class for reduce key min heap
 	public static void main(String[] args) {
 
 		int[] array = { 10, 3, 5, 7, 9, 2, 4, 6, 8 };
@@ -206,6 +446,14 @@ public class PriorityQueue {
 			System.out.println(array[i]);
 		}
 
+		Random random = new Random(args.length > 0 ? Long.parseLong(args[0])
+				: 1990);
+		for (int arity = 2; arity <= 8; arity++) {
+			for (int round = 0; round < 20; round++) {
+				propertyTest(arity, 1 + random.nextInt(200), 5000, random);
+			}
+		}
+		System.out.println("Random operations agree with java.util.PriorityQueue");
 	}
 
-}
\ No newline at end of file
+}
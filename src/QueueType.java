@@ -0,0 +1,30 @@
+/**
+ * The priority queues Prim can run on, see {@link IndexedMinQueue}
+ */
+public enum QueueType {
+
+	/**
+	 * The 4-ary indexed heap, {@link PriorityQueue}. O(log n) for every
+	 * operation, compact and cache friendly
+	 */
+	DARY,
+
+	/**
+	 * {@link PairingHeap}. O(1) insert and very cheap reduce-keys, deleteMin
+	 * is O(log n) amortized. Pays off when reduce-keys dominate
+	 */
+	PAIRING;
+
+	/**
+	 * A new empty queue of this type for the indices 0 .. limit - 1
+	 * 
+	 * @param limit
+	 * @return
+	 */
+	public IndexedMinQueue create(int limit) {
+		if (this == PAIRING) {
+			return new PairingHeap(limit);
+		}
+		return new PriorityQueue(limit);
+	}
+}
@@ -0,0 +1,596 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A compressed set of row numbers in the style of a roaring bitmap. The rows
+ * are grouped in chunks of 65536 by their high 16 bits, and each chunk keeps
+ * its low 16 bits in whichever container is smaller:
+ * 
+ * <pre>
+ * array   a sorted char array, for chunks with at most 4096 rows (2 bytes a
+ *         row)
+ * bitmap  1024 longs, one bit per possible row (8KB, however many rows)
+ * </pre>
+ */
+public class RowBitmap {
+
+	/**
+	 * Largest array container, above this a bitmap is smaller
+	 */
+	private static final int ARRAY_LIMIT = 4096;
+
+	/**
+	 * High 16 bits of the chunks, sorted, and their containers
+	 */
+	private int[] keys = new int[4];
+	private Container[] containers = new Container[4];
+	private int chunkCount = 0;
+
+	/**
+	 * Adds a row. Adding rows in increasing order is the fast path
+	 * 
+	 * @param row
+	 */
+	public void add(int row) {
+		if (row < 0) {
+			throw new IllegalArgumentException("Negative row " + row);
+		}
+		int key = row >>> 16;
+		char low = (char) row;
+
+		int chunk;
+		if (chunkCount > 0 && keys[chunkCount - 1] == key) {
+			chunk = chunkCount - 1;
+		} else {
+			chunk = Arrays.binarySearch(keys, 0, chunkCount, key);
+			if (chunk < 0) {
+				chunk = -chunk - 1;
+				insertChunk(chunk, key, new ArrayContainer());
+			}
+		}
+		containers[chunk] = containers[chunk].add(low);
+	}
+
+	private void insertChunk(int chunk, int key, Container container) {
+		if (chunkCount == keys.length) {
+			keys = Arrays.copyOf(keys, 2 * chunkCount);
+			containers = Arrays.copyOf(containers, 2 * chunkCount);
+		}
+		System.arraycopy(keys, chunk, keys, chunk + 1, chunkCount - chunk);
+		System.arraycopy(containers, chunk, containers, chunk + 1, chunkCount
+				- chunk);
+		keys[chunk] = key;
+		containers[chunk] = container;
+		chunkCount++;
+	}
+
+	/**
+	 * Appends a chunk with a larger key than all others, used to build
+	 * results
+	 * 
+	 * @param key
+	 * @param container
+	 */
+	private void appendChunk(int key, Container container) {
+		if (container.cardinality() > 0) {
+			insertChunk(chunkCount, key, container);
+		}
+	}
+
+	public boolean contains(int row) {
+		if (row < 0) {
+			return false;
+		}
+		int chunk = Arrays.binarySearch(keys, 0, chunkCount, row >>> 16);
+		return chunk >= 0 && containers[chunk].contains((char) row);
+	}
+
+	/**
+	 * Number of rows in the set
+	 * 
+	 * @return
+	 */
+	public int cardinality() {
+		int count = 0;
+		for (int chunk = 0; chunk < chunkCount; chunk++) {
+			count += containers[chunk].cardinality();
+		}
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return chunkCount == 0;
+	}
+
+	/**
+	 * The rows in increasing order
+	 * 
+	 * @return
+	 */
+	public int[] toArray() {
+		int[] rows = new int[cardinality()];
+		int position = 0;
+		for (int chunk = 0; chunk < chunkCount; chunk++) {
+			position = containers[chunk].fill(rows, position,
+					keys[chunk] << 16);
+		}
+		return rows;
+	}
+
+	/**
+	 * Rough bytes held by the containers
+	 * 
+	 * @return
+	 */
+	public long getSizeInBytes() {
+		long bytes = 8L * keys.length;
+		for (int chunk = 0; chunk < chunkCount; chunk++) {
+			bytes += containers[chunk].getSizeInBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * The rows in both sets
+	 * 
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static RowBitmap and(RowBitmap a, RowBitmap b) {
+		RowBitmap result = new RowBitmap();
+		int i = 0, j = 0;
+		while (i < a.chunkCount && j < b.chunkCount) {
+			if (a.keys[i] < b.keys[j]) {
+				i++;
+			} else if (a.keys[i] > b.keys[j]) {
+				j++;
+			} else {
+				result.appendChunk(a.keys[i],
+						a.containers[i].and(b.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The rows in either set
+	 * 
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static RowBitmap or(RowBitmap a, RowBitmap b) {
+		RowBitmap result = new RowBitmap();
+		int i = 0, j = 0;
+		while (i < a.chunkCount || j < b.chunkCount) {
+			if (j == b.chunkCount || i < a.chunkCount
+					&& a.keys[i] < b.keys[j]) {
+				result.appendChunk(a.keys[i], a.containers[i].copy());
+				i++;
+			} else if (i == a.chunkCount || a.keys[i] > b.keys[j]) {
+				result.appendChunk(b.keys[j], b.containers[j].copy());
+				j++;
+			} else {
+				result.appendChunk(a.keys[i],
+						a.containers[i].or(b.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the chunks, so read gives back the same set with the same
+	 * containers
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(chunkCount);
+		for (int chunk = 0; chunk < chunkCount; chunk++) {
+			out.writeChar(keys[chunk]);
+			containers[chunk].write(out);
+		}
+	}
+
+	/**
+	 * Reads a set written by write
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 *             if the data is not a set written by write
+	 */
+	public static RowBitmap read(DataInput in) throws IOException {
+		RowBitmap set = new RowBitmap();
+		int chunks = in.readInt();
+		if (chunks < 0 || chunks > 1 << 16) {
+			throw new IOException("Bad chunk count " + chunks);
+		}
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			int key = in.readChar();
+			if (set.chunkCount > 0 && key <= set.keys[set.chunkCount - 1]) {
+				throw new IOException("Chunks out of order");
+			}
+			Container container;
+			int kind = in.readByte();
+			if (kind == ArrayContainer.KIND) {
+				container = ArrayContainer.read(in);
+			} else if (kind == BitmapContainer.KIND) {
+				container = BitmapContainer.read(in);
+			} else {
+				throw new IOException("Bad container kind " + kind);
+			}
+			set.appendChunk(key, container);
+		}
+		return set;
+	}
+
+	/**
+	 * The low 16 bits of the rows of one chunk
+	 */
+	private static abstract class Container {
+
+		/**
+		 * @param low
+		 * @return this, or a new container if this one had to change kind
+		 */
+		abstract Container add(char low);
+
+		abstract boolean contains(char low);
+
+		abstract int cardinality();
+
+		/**
+		 * Writes the rows (high | low) into rows from position on
+		 * 
+		 * @return the position after the last one written
+		 */
+		abstract int fill(int[] rows, int position, int high);
+
+		abstract Container and(Container other);
+
+		abstract Container or(Container other);
+
+		abstract Container copy();
+
+		abstract long getSizeInBytes();
+
+		/**
+		 * Writes the kind byte and the rows
+		 */
+		abstract void write(DataOutput out) throws IOException;
+	}
+
+	private static class ArrayContainer extends Container {
+		static final int KIND = 0;
+
+		char[] values;
+		int count;
+
+		ArrayContainer() {
+			this(new char[4], 0);
+		}
+
+		ArrayContainer(char[] values, int count) {
+			this.values = values;
+			this.count = count;
+		}
+
+		@Override
+		Container add(char low) {
+			int at;
+			if (count == 0 || values[count - 1] < low) {
+				at = count;
+			} else {
+				at = Arrays.binarySearch(values, 0, count, low);
+				if (at >= 0) {
+					return this;
+				}
+				at = -at - 1;
+			}
+			if (count == ARRAY_LIMIT) {
+				return toBitmap().add(low);
+			}
+			if (count == values.length) {
+				values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT,
+						2 * count));
+			}
+			System.arraycopy(values, at, values, at + 1, count - at);
+			values[at] = low;
+			count++;
+			return this;
+		}
+
+		BitmapContainer toBitmap() {
+			BitmapContainer bitmap = new BitmapContainer();
+			for (int k = 0; k < count; k++) {
+				bitmap.set(values[k]);
+			}
+			return bitmap;
+		}
+
+		@Override
+		boolean contains(char low) {
+			return Arrays.binarySearch(values, 0, count, low) >= 0;
+		}
+
+		@Override
+		int cardinality() {
+			return count;
+		}
+
+		@Override
+		int fill(int[] rows, int position, int high) {
+			for (int k = 0; k < count; k++) {
+				rows[position++] = high | values[k];
+			}
+			return position;
+		}
+
+		@Override
+		Container and(Container other) {
+			char[] result = new char[count];
+			int size = 0;
+			if (other instanceof ArrayContainer) {
+				ArrayContainer array = (ArrayContainer) other;
+				int i = 0, j = 0;
+				while (i < count && j < array.count) {
+					if (values[i] < array.values[j]) {
+						i++;
+					} else if (values[i] > array.values[j]) {
+						j++;
+					} else {
+						result[size++] = values[i];
+						i++;
+						j++;
+					}
+				}
+			} else {
+				for (int k = 0; k < count; k++) {
+					if (other.contains(values[k])) {
+						result[size++] = values[k];
+					}
+				}
+			}
+			return new ArrayContainer(result, size);
+		}
+
+		@Override
+		Container or(Container other) {
+			if (other instanceof BitmapContainer) {
+				return other.or(this);
+			}
+			ArrayContainer array = (ArrayContainer) other;
+			char[] result = new char[count + array.count];
+			int size = 0, i = 0, j = 0;
+			while (i < count || j < array.count) {
+				if (j == array.count || i < count
+						&& values[i] < array.values[j]) {
+					result[size++] = values[i++];
+				} else if (i == count || values[i] > array.values[j]) {
+					result[size++] = array.values[j++];
+				} else {
+					result[size++] = values[i++];
+					j++;
+				}
+			}
+			ArrayContainer union = new ArrayContainer(result, size);
+			return size > ARRAY_LIMIT ? union.toBitmap() : union;
+		}
+
+		@Override
+		Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, count), count);
+		}
+
+		@Override
+		long getSizeInBytes() {
+			return 16 + 2L * values.length;
+		}
+
+		@Override
+		void write(DataOutput out) throws IOException {
+			out.writeByte(KIND);
+			out.writeShort(count);
+			for (int k = 0; k < count; k++) {
+				out.writeChar(values[k]);
+			}
+		}
+
+		static ArrayContainer read(DataInput in) throws IOException {
+			int count = in.readUnsignedShort();
+			if (count == 0 || count > ARRAY_LIMIT) {
+				throw new IOException("Array container of " + count + " rows");
+			}
+			char[] values = new char[count];
+			for (int k = 0; k < count; k++) {
+				values[k] = in.readChar();
+				if (k > 0 && values[k] <= values[k - 1]) {
+					throw new IOException("Rows out of order");
+				}
+			}
+			return new ArrayContainer(values, count);
+		}
+	}
+
+	private static class BitmapContainer extends Container {
+		static final int KIND = 1;
+
+		long[] words = new long[1024];
+		int cardinality = 0;
+
+		void set(char low) {
+			long bit = 1L << low;
+			if ((words[low >>> 6] & bit) == 0) {
+				words[low >>> 6] |= bit;
+				cardinality++;
+			}
+		}
+
+		@Override
+		Container add(char low) {
+			set(low);
+			return this;
+		}
+
+		@Override
+		boolean contains(char low) {
+			return (words[low >>> 6] & (1L << low)) != 0;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		int fill(int[] rows, int position, int high) {
+			for (int w = 0; w < words.length; w++) {
+				long word = words[w];
+				while (word != 0) {
+					rows[position++] = high | (w << 6)
+							| Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+				}
+			}
+			return position;
+		}
+
+		@Override
+		Container and(Container other) {
+			if (other instanceof ArrayContainer) {
+				return other.and(this);
+			}
+			BitmapContainer bitmap = (BitmapContainer) other;
+			BitmapContainer result = new BitmapContainer();
+			for (int w = 0; w < words.length; w++) {
+				result.words[w] = words[w] & bitmap.words[w];
+				result.cardinality += Long.bitCount(result.words[w]);
+			}
+			if (result.cardinality > ARRAY_LIMIT) {
+				return result;
+			}
+			char[] values = new char[result.cardinality];
+			int count = 0;
+			for (int w = 0; w < words.length; w++) {
+				long word = result.words[w];
+				while (word != 0) {
+					values[count++] = (char) ((w << 6) | Long
+							.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return new ArrayContainer(values, count);
+		}
+
+		@Override
+		Container or(Container other) {
+			BitmapContainer result = (BitmapContainer) copy();
+			if (other instanceof ArrayContainer) {
+				ArrayContainer array = (ArrayContainer) other;
+				for (int k = 0; k < array.count; k++) {
+					result.set(array.values[k]);
+				}
+				return result;
+			}
+			BitmapContainer bitmap = (BitmapContainer) other;
+			result.cardinality = 0;
+			for (int w = 0; w < words.length; w++) {
+				result.words[w] |= bitmap.words[w];
+				result.cardinality += Long.bitCount(result.words[w]);
+			}
+			return result;
+		}
+
+		@Override
+		Container copy() {
+			BitmapContainer result = new BitmapContainer();
+			result.words = words.clone();
+			result.cardinality = cardinality;
+			return result;
+		}
+
+		@Override
+		long getSizeInBytes() {
+			return 16 + 8L * words.length;
+		}
+
+		@Override
+		void write(DataOutput out) throws IOException {
+			out.writeByte(KIND);
+			for (long word : words) {
+				out.writeLong(word);
+			}
+		}
+
+		static BitmapContainer read(DataInput in) throws IOException {
+			BitmapContainer bitmap = new BitmapContainer();
+			for (int w = 0; w < bitmap.words.length; w++) {
+				bitmap.words[w] = in.readLong();
+				bitmap.cardinality += Long.bitCount(bitmap.words[w]);
+			}
+			return bitmap;
+		}
+	}
+
+	// Test class: random sets against java.util.BitSet
+	public static void main(String[] args) throws IOException {
+		java.util.Random random = new java.util.Random(1990);
+		for (int round = 0; round < 200; round++) {
+			int range = 1 + random.nextInt(400000);
+			RowBitmap[] sets = new RowBitmap[2];
+			java.util.BitSet[] reference = new java.util.BitSet[2];
+			for (int s = 0; s < 2; s++) {
+				sets[s] = new RowBitmap();
+				reference[s] = new java.util.BitSet();
+				// Dense or sparse, so both container kinds are used
+				int count = random.nextInt(2) == 0 ? random.nextInt(100)
+						: random.nextInt(range);
+				for (int k = 0; k < count; k++) {
+					int row = random.nextInt(range);
+					sets[s].add(row);
+					reference[s].set(row);
+				}
+			}
+
+			java.util.BitSet both = (java.util.BitSet) reference[0].clone();
+			both.and(reference[1]);
+			java.util.BitSet either = (java.util.BitSet) reference[0].clone();
+			either.or(reference[1]);
+			check(sets[0], reference[0]);
+			check(and(sets[0], sets[1]), both);
+			check(or(sets[0], sets[1]), either);
+
+			java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+			sets[1].write(new java.io.DataOutputStream(bytes));
+			check(read(new java.io.DataInputStream(
+					new java.io.ByteArrayInputStream(bytes.toByteArray()))),
+					reference[1]);
+		}
+		System.out.println("AND, OR, toArray and write / read agree with BitSet");
+	}
+
+	private static void check(RowBitmap set, java.util.BitSet reference) {
+		int[] rows = set.toArray();
+		if (rows.length != reference.cardinality()) {
+			throw new IllegalStateException("Cardinality " + rows.length
+					+ ", expected " + reference.cardinality());
+		}
+		int row = -1;
+		for (int value : rows) {
+			row = reference.nextSetBit(row + 1);
+			if (value != row || !set.contains(value)) {
+				throw new IllegalStateException("Row " + value
+						+ ", expected " + row);
+			}
+		}
+	}
+}
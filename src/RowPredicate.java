@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A condition on the attributes of the crime records, answered from the
+ * bitmaps of an {@link AttributeIndex} without reading the records. Built
+ * from the static methods, or parsed from text:
+ * 
+ * <pre>
+ * offense=ROBBERY,tract=160600,date=3/1/1990..3/31/1990
+ * offense=ROBBERY|RAPE,date=12/25/1990
+ * </pre>
+ * 
+ * Terms separated by commas must all hold, values separated by | are
+ * alternatives. Dates are M/d/yyyy, ranges inclusive, and the case of a value
+ * does not matter.
+ */
+public abstract class RowPredicate {
+
+	/**
+	 * The rows of the index that match
+	 * 
+	 * @param index
+	 * @return
+	 */
+	abstract RowBitmap evaluate(AttributeIndex index);
+
+	public static RowPredicate offense(final String offense) {
+		return new RowPredicate() {
+			@Override
+			RowBitmap evaluate(AttributeIndex index) {
+				return index.getOffenseRows(offense);
+			}
+		};
+	}
+
+	public static RowPredicate tract(final String tract) {
+		return new RowPredicate() {
+			@Override
+			RowBitmap evaluate(AttributeIndex index) {
+				return index.getTractRows(tract);
+			}
+		};
+	}
+
+	public static RowPredicate date(String date) {
+		return dateBetween(date, date);
+	}
+
+	/**
+	 * Dates from to to, both inclusive
+	 * 
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public static RowPredicate dateBetween(String from, String to) {
+		final int firstDay = AttributeIndex.parseDay(from);
+		final int lastDay = AttributeIndex.parseDay(to);
+		return new RowPredicate() {
+			@Override
+			RowBitmap evaluate(AttributeIndex index) {
+				return index.getDateRows(firstDay, lastDay);
+			}
+		};
+	}
+
+	/**
+	 * Rows matching all of the predicates
+	 * 
+	 * @param predicates
+	 * @return
+	 */
+	public static RowPredicate and(final RowPredicate... predicates) {
+		return new RowPredicate() {
+			@Override
+			RowBitmap evaluate(AttributeIndex index) {
+				RowBitmap result = predicates[0].evaluate(index);
+				for (int k = 1; k < predicates.length && !result.isEmpty(); k++) {
+					result = RowBitmap.and(result, predicates[k].evaluate(index));
+				}
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Rows matching any of the predicates
+	 * 
+	 * @param predicates
+	 * @return
+	 */
+	public static RowPredicate or(final RowPredicate... predicates) {
+		return new RowPredicate() {
+			@Override
+			RowBitmap evaluate(AttributeIndex index) {
+				RowBitmap result = new RowBitmap();
+				for (RowPredicate predicate : predicates) {
+					result = RowBitmap.or(result, predicate.evaluate(index));
+				}
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Parses the text form described above
+	 * 
+	 * @param text
+	 * @return
+	 */
+	public static RowPredicate parse(String text) {
+		List<RowPredicate> terms = new ArrayList<>();
+		for (String term : text.split(",")) {
+			int equals = term.indexOf('=');
+			if (equals < 0) {
+				throw new IllegalArgumentException("Expected name=value in "
+						+ term);
+			}
+			String name = term.substring(0, equals).trim().toLowerCase();
+			String[] values = term.substring(equals + 1).split("\\|");
+
+			RowPredicate[] alternatives = new RowPredicate[values.length];
+			for (int k = 0; k < values.length; k++) {
+				String value = values[k].trim();
+				if (name.equals("offense")) {
+					alternatives[k] = offense(value);
+				} else if (name.equals("tract")) {
+					alternatives[k] = tract(value);
+				} else if (name.equals("date")) {
+					int range = value.indexOf("..");
+					alternatives[k] = range < 0 ? date(value) : dateBetween(
+							value.substring(0, range),
+							value.substring(range + 2));
+				} else {
+					throw new IllegalArgumentException("Unknown attribute "
+							+ name);
+				}
+			}
+			terms.add(alternatives.length == 1 ? alternatives[0]
+					: or(alternatives));
+		}
+		return terms.size() == 1 ? terms.get(0) : and(terms
+				.toArray(new RowPredicate[terms.size()]));
+	}
+}
@@ -0,0 +1,853 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Keeps a spanning tree and a tour over a set of points that changes a few
+ * points at a time, such as the crimes of the last N days, without solving
+ * from scratch after every change. The work of an update depends on the
+ * points around the change, not on how many points there are.
+ * 
+ * Adding a point joins it to its nearest neighbour, then tries the edges to
+ * its other nearest neighbours: each of them closes a cycle in the tree, and
+ * if the longest edge on that cycle is longer than the new edge it is
+ * replaced. That is the cycle rule of the MST, so as long as the MST edges of
+ * the new point are among its candidates the tree stays minimal. The path
+ * search is a breadth first search with a bound, a cycle longer than the
+ * bound is left alone.
+ * 
+ * Removing a point splits the tree into one piece per tree neighbour. The
+ * pieces are joined again by the MST of those neighbours, then the edges to
+ * the nearest points of every ex-neighbour are tried as above. The best edge
+ * between two pieces can be far from the removed point, so unlike adding
+ * this does not always give the MST: on the 1990 crimes with a 30 day window
+ * the tree ends up about half a percent heavier.
+ * 
+ * The tour is a doubly linked list. A new point goes into the tour edge next
+ * to one of its nearest neighbours where it adds the least (cheapest
+ * insertion), a removed point is unlinked. The length is updated with every
+ * change. Both drift away from what a rebuild would give, so a rebuild from
+ * scratch can be asked for every so many updates.
+ * 
+ * The nearest points are found with a uniform grid over a bounding box given
+ * up front. Points outside it go into the border cells.
+ */
+public class SlidingWindowTour {
+
+	/**
+	 * Nearest points tried as tree edges and tour positions per update
+	 */
+	private static final int CANDIDATES = 8;
+
+	/**
+	 * Most vertices the path search of a candidate edge may visit
+	 */
+	private static final int PATH_LIMIT = 4096;
+
+	private int size = 0;
+
+	/**
+	 * Slots: point ids are indices into these arrays and are reused after a
+	 * point is removed
+	 */
+	private double[] x = new double[16];
+	private double[] y = new double[16];
+	private boolean[] alive = new boolean[16];
+	private int slotCount = 0;
+	private int[] freeSlots = new int[16];
+	private int freeCount = 0;
+
+	/**
+	 * The tree as adjacency lists, adj[v][0 .. degree[v] - 1]
+	 */
+	private int[][] adj = new int[16][];
+	private int[] degree = new int[16];
+	private double treeWeight = 0.0;
+
+	/**
+	 * The tour as a doubly linked list over the slots
+	 */
+	private int[] next = new int[16];
+	private int[] prev = new int[16];
+	private int tourStart = -1;
+	private double tourLength = 0.0;
+
+	/**
+	 * The grid: the points of cell c are cellItems[c][0 .. cellCount[c] - 1],
+	 * point p is at cellItems[cellOf[p]][cellPos[p]]
+	 */
+	private final double minX, minY, cellSize;
+	private final int columns, rows;
+	private int[][] cellItems;
+	private int[] cellCount;
+	private int[] cellOf = new int[16];
+	private int[] cellPos = new int[16];
+
+	/**
+	 * Work space of the path search. A vertex is visited in the current
+	 * search when visitStamp[v] == stamp
+	 */
+	private int[] visitStamp = new int[16];
+	private int[] pathParent = new int[16];
+	private int[] pathQueue = new int[16];
+	private int stamp = 0;
+
+	private int[] found = new int[CANDIDATES];
+	private double[] foundDistance = new double[CANDIDATES];
+
+	private int rebuildEvery = 0;
+	private int updatesSinceRebuild = 0;
+
+	private long replacements = 0;
+	private long skippedPaths = 0;
+	private long rebuilds = 0;
+
+	/**
+	 * A window over points that mostly lie in the given box
+	 * 
+	 * @param minX
+	 * @param minY
+	 * @param maxX
+	 * @param maxY
+	 * @param cellSize
+	 *            side of a grid cell. Works best when a cell holds a few
+	 *            points of a full window
+	 */
+	public SlidingWindowTour(double minX, double minY, double maxX,
+			double maxY, double cellSize) {
+		if (!(cellSize > 0)) {
+			throw new IllegalArgumentException("Cell size must be positive");
+		}
+		this.minX = minX;
+		this.minY = minY;
+		this.cellSize = cellSize;
+		columns = Math.max(1, (int) Math.ceil((maxX - minX) / cellSize));
+		rows = Math.max(1, (int) Math.ceil((maxY - minY) / cellSize));
+		if ((long) columns * rows > Integer.MAX_VALUE / 2) {
+			throw new IllegalArgumentException("Too many grid cells");
+		}
+		cellItems = new int[columns * rows][];
+		cellCount = new int[columns * rows];
+	}
+
+	/**
+	 * Rebuilds the tree and the tour from scratch after every so many
+	 * updates. 0 (the default) never does
+	 * 
+	 * @param rebuildEvery
+	 */
+	public void setRebuildEvery(int rebuildEvery) {
+		this.rebuildEvery = Math.max(0, rebuildEvery);
+	}
+
+	/**
+	 * Adds a point to the tree and the tour
+	 * 
+	 * @param px
+	 * @param py
+	 * @return the id of the point, needed to remove it again
+	 */
+	public int add(double px, double py) {
+		int p = allocate();
+		x[p] = px;
+		y[p] = py;
+
+		int count = nearest(p, found, foundDistance);
+		gridInsert(p);
+		alive[p] = true;
+		size++;
+
+		int[] candidates = Arrays.copyOf(found, count);
+		if (count > 0) {
+			addTreeEdge(p, candidates[0]);
+			tryEdges(p, candidates);
+		}
+		insertIntoTour(p, candidates);
+
+		updated();
+		return p;
+	}
+
+	/**
+	 * Removes a point from the tree and the tour
+	 * 
+	 * @param p
+	 *            id from add
+	 */
+	public void remove(int p) {
+		if (p < 0 || p >= slotCount || !alive[p]) {
+			throw new IllegalArgumentException("No point with id " + p);
+		}
+
+		int[] neighbours = Arrays.copyOf(adj[p], degree[p]);
+		for (int q : neighbours) {
+			removeTreeEdge(p, q);
+		}
+		removeFromTour(p);
+		gridRemove(p);
+		alive[p] = false;
+		size--;
+		freeSlots[freeCount++] = p;
+		reconnect(neighbours);
+		for (int a : neighbours) {
+			int count = nearest(a, found, foundDistance);
+			tryEdges(a, Arrays.copyOf(found, count));
+		}
+
+		updated();
+	}
+
+	/**
+	 * Joins the pieces left by a removed point with the MST (Prim, O(d^2)) of
+	 * the ex-neighbours, one in each piece
+	 * 
+	 * @param neighbours
+	 */
+	private void reconnect(int[] neighbours) {
+		int d = neighbours.length;
+		if (d < 2) {
+			return;
+		}
+		double[] best = new double[d];
+		int[] bestFrom = new int[d];
+		boolean[] inTree = new boolean[d];
+		Arrays.fill(best, Double.POSITIVE_INFINITY);
+
+		int current = 0;
+		for (int added = 1; added < d; added++) {
+			inTree[current] = true;
+			int nextIndex = -1;
+			for (int j = 0; j < d; j++) {
+				if (inTree[j]) {
+					continue;
+				}
+				double w = distance(neighbours[current], neighbours[j]);
+				if (w < best[j]) {
+					best[j] = w;
+					bestFrom[j] = current;
+				}
+				if (nextIndex == -1 || best[j] < best[nextIndex]) {
+					nextIndex = j;
+				}
+			}
+			addTreeEdge(neighbours[bestFrom[nextIndex]], neighbours[nextIndex]);
+			current = nextIndex;
+		}
+	}
+
+	/**
+	 * Tries the edges from a to its nearest points, and to the tree
+	 * neighbours of those that are closer to a than to them. The second kind
+	 * are the edges of points for which a is one of the nearest although
+	 * they are not among the nearest of a, which the nearest points alone
+	 * miss
+	 * 
+	 * @param a
+	 * @param candidates
+	 *            nearest points of a
+	 */
+	private void tryEdges(int a, int[] candidates) {
+		for (int c : candidates) {
+			if (c != a && alive[c]) {
+				tryEdge(a, c);
+			}
+		}
+		for (int c : candidates) {
+			if (!alive[c]) {
+				continue;
+			}
+			int[] around = Arrays.copyOf(adj[c], degree[c]);
+			for (int r : around) {
+				if (r != a && distance(a, r) < distance(c, r)) {
+					tryEdge(a, r);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The cycle rule: adds the edge a - b if the tree path between them has a
+	 * longer edge, which is then removed
+	 * 
+	 * @param a
+	 * @param b
+	 */
+	private void tryEdge(int a, int b) {
+		double weight = distance(a, b);
+
+		// Breadth first search from a until b is reached
+		stamp++;
+		int head = 0, tail = 0;
+		visitStamp[a] = stamp;
+		pathParent[a] = -1;
+		pathQueue[tail++] = a;
+		boolean reached = false;
+		while (head < tail && !reached) {
+			int v = pathQueue[head++];
+			for (int k = 0; k < degree[v]; k++) {
+				int w = adj[v][k];
+				if (visitStamp[w] == stamp) {
+					continue;
+				}
+				visitStamp[w] = stamp;
+				pathParent[w] = v;
+				if (w == b) {
+					reached = true;
+					break;
+				}
+				if (tail == PATH_LIMIT) {
+					skippedPaths++;
+					return;
+				}
+				pathQueue[tail++] = w;
+			}
+		}
+		if (!reached) {
+			return;
+		}
+
+		// Longest edge on the path b .. a
+		int longFrom = -1, longTo = -1;
+		double longest = weight;
+		for (int v = b; pathParent[v] != -1; v = pathParent[v]) {
+			double w = distance(v, pathParent[v]);
+			if (w > longest) {
+				longest = w;
+				longFrom = v;
+				longTo = pathParent[v];
+			}
+		}
+		if (longFrom != -1) {
+			removeTreeEdge(longFrom, longTo);
+			addTreeEdge(a, b);
+			replacements++;
+		}
+	}
+
+	private void addTreeEdge(int a, int b) {
+		addNeighbour(a, b);
+		addNeighbour(b, a);
+		treeWeight += distance(a, b);
+	}
+
+	private void removeTreeEdge(int a, int b) {
+		removeNeighbour(a, b);
+		removeNeighbour(b, a);
+		treeWeight -= distance(a, b);
+	}
+
+	private void addNeighbour(int a, int b) {
+		if (adj[a] == null) {
+			adj[a] = new int[4];
+		} else if (degree[a] == adj[a].length) {
+			adj[a] = Arrays.copyOf(adj[a], 2 * degree[a]);
+		}
+		adj[a][degree[a]++] = b;
+	}
+
+	private void removeNeighbour(int a, int b) {
+		for (int k = 0; k < degree[a]; k++) {
+			if (adj[a][k] == b) {
+				adj[a][k] = adj[a][--degree[a]];
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Puts p into the tour edge next to one of the candidates where it adds
+	 * the least
+	 * 
+	 * @param p
+	 * @param candidates
+	 */
+	private void insertIntoTour(int p, int[] candidates) {
+		if (tourStart == -1) {
+			next[p] = p;
+			prev[p] = p;
+			tourStart = p;
+			return;
+		}
+
+		int bestAfter = -1;
+		double bestCost = Double.POSITIVE_INFINITY;
+		for (int a : candidates) {
+			// The edges a - next[a] and prev[a] - a
+			for (int side = 0; side < 2; side++) {
+				int from = side == 0 ? a : prev[a];
+				int to = next[from];
+				double cost = distance(from, p) + distance(p, to)
+						- distance(from, to);
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestAfter = from;
+				}
+			}
+		}
+		if (bestAfter == -1) {
+			bestAfter = tourStart;
+			bestCost = 2 * distance(bestAfter, p)
+					- distance(bestAfter, next[bestAfter]);
+		}
+
+		int after = next[bestAfter];
+		next[bestAfter] = p;
+		prev[p] = bestAfter;
+		next[p] = after;
+		prev[after] = p;
+		tourLength += bestCost;
+	}
+
+	private void removeFromTour(int p) {
+		int a = prev[p];
+		int b = next[p];
+		if (a == p) {
+			tourStart = -1;
+			tourLength = 0.0;
+			return;
+		}
+		tourLength += distance(a, b) - distance(a, p) - distance(p, b);
+		next[a] = b;
+		prev[b] = a;
+		if (tourStart == p) {
+			tourStart = b;
+		}
+	}
+
+	/**
+	 * The nearest CANDIDATES points to p, nearest first, searched in growing
+	 * rings of grid cells
+	 * 
+	 * @param p
+	 * @param found
+	 * @param foundDistance
+	 *            squared distances
+	 * @return number found
+	 */
+	private int nearest(int p, int[] found, double[] foundDistance) {
+		int k = found.length;
+		int pc = column(x[p]);
+		int pr = row(y[p]);
+		int count = 0;
+		int maxRing = Math.max(columns, rows);
+
+		for (int ring = 0; ring <= maxRing; ring++) {
+			int c0 = pc - ring, c1 = pc + ring;
+			int r0 = pr - ring, r1 = pr + ring;
+			for (int r = Math.max(0, r0); r <= Math.min(rows - 1, r1); r++) {
+				boolean edgeRow = r == r0 || r == r1;
+				int step = edgeRow ? 1 : Math.max(1, c1 - c0);
+				for (int c = c0; c <= c1; c += step) {
+					if (c < 0 || c >= columns) {
+						continue;
+					}
+					int cell = r * columns + c;
+					for (int j = 0; j < cellCount[cell]; j++) {
+						int q = cellItems[cell][j];
+						if (q == p) {
+							continue;
+						}
+						double dx = x[q] - x[p];
+						double dy = y[q] - y[p];
+						double d = dx * dx + dy * dy;
+						if (count == k && d >= foundDistance[k - 1]
+								|| sameAsFound(q, d, found, foundDistance, count)) {
+							continue;
+						}
+						int slot = count < k ? count++ : k - 1;
+						while (slot > 0 && foundDistance[slot - 1] > d) {
+							found[slot] = found[slot - 1];
+							foundDistance[slot] = foundDistance[slot - 1];
+							slot--;
+						}
+						found[slot] = q;
+						foundDistance[slot] = d;
+					}
+				}
+			}
+
+			// Points outside the box sit in the border cells, so only stop
+			// early when the ring bound holds for p
+			double reach = ring * cellSize;
+			if (count == k && foundDistance[k - 1] <= reach * reach
+					&& inside(p)) {
+				break;
+			}
+			if (count == size - (alive[p] ? 1 : 0)) {
+				break;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Whether a point at the same place as q is already among the found.
+	 * Crimes at one address would otherwise fill all the candidates with
+	 * copies of one point
+	 * 
+	 * @param q
+	 * @param d
+	 *            squared distance of q
+	 * @param found
+	 * @param foundDistance
+	 * @param count
+	 * @return
+	 */
+	private boolean sameAsFound(int q, double d, int[] found,
+			double[] foundDistance, int count) {
+		for (int j = 0; j < count; j++) {
+			if (foundDistance[j] == d && x[found[j]] == x[q]
+					&& y[found[j]] == y[q]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean inside(int p) {
+		return x[p] >= minX && y[p] >= minY
+				&& x[p] <= minX + columns * cellSize
+				&& y[p] <= minY + rows * cellSize;
+	}
+
+	private int column(double px) {
+		return Math.max(0, Math.min(columns - 1, (int) ((px - minX) / cellSize)));
+	}
+
+	private int row(double py) {
+		return Math.max(0, Math.min(rows - 1, (int) ((py - minY) / cellSize)));
+	}
+
+	private void gridInsert(int p) {
+		int cell = row(y[p]) * columns + column(x[p]);
+		if (cellItems[cell] == null) {
+			cellItems[cell] = new int[4];
+		} else if (cellCount[cell] == cellItems[cell].length) {
+			cellItems[cell] = Arrays.copyOf(cellItems[cell],
+					2 * cellCount[cell]);
+		}
+		cellOf[p] = cell;
+		cellPos[p] = cellCount[cell];
+		cellItems[cell][cellCount[cell]++] = p;
+	}
+
+	private void gridRemove(int p) {
+		int cell = cellOf[p];
+		int last = cellItems[cell][--cellCount[cell]];
+		cellItems[cell][cellPos[p]] = last;
+		cellPos[last] = cellPos[p];
+	}
+
+	/**
+	 * A free slot, growing the arrays when there is none
+	 * 
+	 * @return
+	 */
+	private int allocate() {
+		if (freeCount > 0) {
+			int p = freeSlots[--freeCount];
+			degree[p] = 0;
+			return p;
+		}
+		if (slotCount == x.length) {
+			int length = 2 * x.length;
+			x = Arrays.copyOf(x, length);
+			y = Arrays.copyOf(y, length);
+			alive = Arrays.copyOf(alive, length);
+			freeSlots = Arrays.copyOf(freeSlots, length);
+			adj = Arrays.copyOf(adj, length);
+			degree = Arrays.copyOf(degree, length);
+			next = Arrays.copyOf(next, length);
+			prev = Arrays.copyOf(prev, length);
+			cellOf = Arrays.copyOf(cellOf, length);
+			cellPos = Arrays.copyOf(cellPos, length);
+			visitStamp = Arrays.copyOf(visitStamp, length);
+			pathParent = Arrays.copyOf(pathParent, length);
+			pathQueue = Arrays.copyOf(pathQueue, length);
+		}
+		return slotCount++;
+	}
+
+	private void updated() {
+		updatesSinceRebuild++;
+		if (rebuildEvery > 0 && updatesSinceRebuild >= rebuildEvery) {
+			rebuild();
+		}
+	}
+
+	/**
+	 * Replaces the tree with the exact MST of the current points and the tour
+	 * with its preorder walk, both from {@link PrimMST}
+	 */
+	public void rebuild() {
+		updatesSinceRebuild = 0;
+		rebuilds++;
+		if (size == 0) {
+			return;
+		}
+
+		int[] ids = new int[size];
+		double[] px = new double[size];
+		double[] py = new double[size];
+		int count = 0;
+		for (int p = 0; p < slotCount; p++) {
+			if (alive[p]) {
+				ids[count] = p;
+				px[count] = x[p];
+				py[count++] = y[p];
+			}
+		}
+
+		PrimMST primObj = new PrimMST();
+		primObj.setThreads(1);
+		primObj.getMetrics().setEnabled(false);
+		primObj.loadGraph(new PointSet(px, py));
+		primObj.getMST(0);
+		int[] cycle = primObj.getHamiltonianCycle(0);
+
+		treeWeight = 0.0;
+		for (int i = 0; i < size; i++) {
+			degree[ids[i]] = 0;
+		}
+		// Vertex 0 is the root, its parent is itself
+		for (int i = 1; i < size; i++) {
+			addTreeEdge(ids[i], ids[primObj.parent[i]]);
+		}
+
+		tourLength = 0.0;
+		for (int i = 0; i < size; i++) {
+			int a = ids[cycle[i]];
+			int b = ids[cycle[i + 1]];
+			next[a] = b;
+			prev[b] = a;
+			tourLength += distance(a, b);
+		}
+		tourStart = ids[cycle[0]];
+	}
+
+	private double distance(int a, int b) {
+		double dx = x[a] - x[b];
+		double dy = y[a] - y[b];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Length of the tour, in the units of the coordinates
+	 * 
+	 * @return
+	 */
+	public double getTourLength() {
+		return tourLength;
+	}
+
+	/**
+	 * Weight of the tree, in the units of the coordinates
+	 * 
+	 * @return
+	 */
+	public double getTreeWeight() {
+		return treeWeight;
+	}
+
+	/**
+	 * The closed tour as point ids, the first id repeated at the end
+	 * 
+	 * @return
+	 */
+	public int[] getTour() {
+		if (tourStart == -1) {
+			return new int[0];
+		}
+		int[] tour = new int[size + 1];
+		int p = tourStart;
+		for (int i = 0; i < size; i++) {
+			tour[i] = p;
+			p = next[p];
+		}
+		tour[size] = tourStart;
+		return tour;
+	}
+
+	public double getX(int p) {
+		return x[p];
+	}
+
+	public double getY(int p) {
+		return y[p];
+	}
+
+	public long getReplacements() {
+		return replacements;
+	}
+
+	/**
+	 * Candidate edges left alone because their cycle was longer than the
+	 * path search bound
+	 * 
+	 * @return
+	 */
+	public long getSkippedPaths() {
+		return skippedPaths;
+	}
+
+	public long getRebuilds() {
+		return rebuilds;
+	}
+
+	/**
+	 * Feeds the records of the csv through a window of the last windowDays
+	 * days, one day at a time in date order, and prints the window after
+	 * every day. With printTours the tour is printed too, as csv rows
+	 * 
+	 * @param dataFile
+	 * @param windowDays
+	 * @param rebuildEvery
+	 *            see setRebuildEvery
+	 * @param printTours
+	 * @return the window after the last day
+	 * @throws IOException
+	 */
+	public static SlidingWindowTour replay(String dataFile, int windowDays,
+			int rebuildEvery, boolean printTours) throws IOException {
+		if (PointStore.isPointStore(dataFile)) {
+			throw new IOException(dataFile
+					+ " is a point store, it has no Date column to replay");
+		}
+		CsvPointLoader loader = new CsvPointLoader(dataFile);
+		loader.load(0, Integer.MAX_VALUE - 1);
+		double[] xs = loader.getXs();
+		double[] ys = loader.getYs();
+		String[] lines = loader.getRows();
+		int n = xs.length;
+
+		int[] day = new int[n];
+		for (int i = 0; i < n; i++) {
+			day[i] = AttributeIndex.parseDay(lines[i].split(",")[
+					AttributeIndex.DATE_COLUMN]);
+		}
+
+		// Rows in date order (stable)
+		Integer[] boxed = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			boxed[i] = i;
+		}
+		final int[] dayOf = day;
+		Arrays.sort(boxed, new java.util.Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Integer.compare(dayOf[a], dayOf[b]);
+			}
+		});
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = boxed[i];
+		}
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, xs[i]);
+			maxX = Math.max(maxX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		// About two points of a full window per cell
+		double perWindow = Math.max(1.0, (double) n * windowDays / 365);
+		double cellSize = Math.max(1.0,
+				Math.sqrt((maxX - minX) * (maxY - minY) * 2 / perWindow));
+
+		SlidingWindowTour window = new SlidingWindowTour(minX, minY, maxX,
+				maxY, cellSize);
+		window.setRebuildEvery(rebuildEvery);
+		int[] idOfRow = new int[n];
+		int[] rowOfId = new int[16];
+
+		int added = 0, expired = 0;
+		long totalNanos = 0;
+		int updates = 0;
+		while (added < n) {
+			int today = day[order[added]];
+			long time = System.nanoTime();
+			int changes = 0;
+			while (expired < added && day[order[expired]] <= today - windowDays) {
+				window.remove(idOfRow[order[expired++]]);
+				changes++;
+			}
+			while (added < n && day[order[added]] == today) {
+				int row = order[added++];
+				idOfRow[row] = window.add(xs[row], ys[row]);
+				if (idOfRow[row] >= rowOfId.length) {
+					rowOfId = Arrays.copyOf(rowOfId, 2 * idOfRow[row] + 1);
+				}
+				rowOfId[idOfRow[row]] = row;
+				changes++;
+			}
+			time = System.nanoTime() - time;
+			totalNanos += time;
+			updates += changes;
+
+			System.out.printf("%s  %4d points  %3d changes  %8.3f ms  "
+					+ "tour %7.2f miles  tree %7.2f miles%n",
+					lines[order[added - 1]].split(",")[AttributeIndex.DATE_COLUMN]
+							.trim(),
+					window.getSize(), changes, time / 1e6,
+					window.getTourLength() * 0.00018939,
+					window.getTreeWeight() * 0.00018939);
+			if (printTours) {
+				int[] tour = window.getTour();
+				for (int i = 0; i < tour.length; i++) {
+					tour[i] = rowOfId[tour[i]];
+				}
+				System.out.println("Tour: " + Arrays.toString(tour));
+			}
+		}
+
+		System.out.printf("%d updates, %.4f ms per update, %d edge "
+				+ "replacements, %d paths over the bound, %d rebuilds%n",
+				updates, totalNanos / 1e6 / Math.max(1, updates),
+				window.getReplacements(), window.getSkippedPaths(),
+				window.getRebuilds());
+		return window;
+	}
+
+	/**
+	 * Replays the csv one day at a time over a window of the last N days and
+	 * prints the window after every day, then compares the final window with
+	 * a solve from scratch: SlidingWindowTour [file] [days] [rebuildEvery]
+	 * 
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		String dataFile = args.length > 0 ? args[0] : "CrimeLatLonXY1990.csv";
+		int windowDays = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+		int rebuildEvery = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+		SlidingWindowTour window = replay(dataFile, windowDays, rebuildEvery,
+				false);
+
+		// The same window from scratch
+		int[] tour = window.getTour();
+		double[] px = new double[window.getSize()];
+		double[] py = new double[window.getSize()];
+		for (int i = 0; i < px.length; i++) {
+			px[i] = window.getX(tour[i]);
+			py[i] = window.getY(tour[i]);
+		}
+		long time = System.nanoTime();
+		PrimMST primObj = new PrimMST();
+		primObj.loadGraph(new PointSet(px, py));
+		primObj.getMST(0);
+		int[] cycle = primObj.getHamiltonianCycle(0);
+		time = System.nanoTime() - time;
+		double treeWeight = 0.0;
+		for (int i = 1; i < px.length; i++) {
+			treeWeight += primObj.getPoints().distance(i, primObj.parent[i]);
+		}
+		System.out.printf("From scratch: tour %.2f miles, tree %.2f miles "
+				+ "in %.3f ms%n", primObj.getMilesFromPath(cycle),
+				treeWeight * 0.00018939, time / 1e6);
+	}
+}
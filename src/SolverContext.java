@@ -0,0 +1,146 @@
+import java.util.Arrays;
+
+/**
+ * The working buffers of a {@link PrimMST} run: the distance, parent and
+ * marked arrays of Prim, the {@link IndexedMinQueue}, the child lists, the
+ * {@link Stack} of the preorder walk and the matrix of the MATRIX mode. A
+ * PrimMST allocates them for every run, which churns the garbage collector
+ * when many similar problems are solved one after the other. A context keeps
+ * them between runs instead: the buffers grow to the largest size seen so far
+ * and are reset in place, so repeated solves of similar size allocate almost
+ * nothing.
+ * 
+ * The arrays can be longer than the problem, only the first size entries are
+ * used. A context must not be shared by two PrimMST objects that run at the
+ * same time, give every thread its own.
+ */
+public class SolverContext {
+
+	/**
+	 * Length of the buffers, the largest size seen so far
+	 */
+	private int capacity = 0;
+
+	double[] distance = new double[0];
+	int[] parent = new int[0];
+	boolean[] marked = new boolean[0];
+	int[] remaining = new int[0];
+
+	/**
+	 * Room for the neighbours of one vertex, see WeightedGraph.getNeighbours
+	 */
+	int[] neighbourTargets = new int[0];
+	double[] neighbourWeights = new double[0];
+
+	/**
+	 * Room for a row of a packed matrix, see Graph.getRow
+	 */
+	double[] row = new double[0];
+
+	/**
+	 * The queue of the last heap run and its type, see queue()
+	 */
+	private IndexedMinQueue pq = null;
+	private QueueType pqType = null;
+	private int pqLimit = 0;
+
+	int[] childStart = new int[1];
+	int[] childIdx = new int[0];
+	int[] childFill = new int[0];
+	boolean[] visited = new boolean[0];
+	Stack stack = new Stack(0);
+	int[] path = new int[1];
+
+	/**
+	 * The complete graph of the last MATRIX run, refilled when the next run
+	 * has the same number of vertices
+	 */
+	Graph graph = null;
+
+	/**
+	 * Number of times the buffers had to grow
+	 */
+	private long growCount = 0;
+
+	/**
+	 * Makes every buffer at least size long. Growing drops the old contents
+	 * 
+	 * @param size
+	 */
+	public void ensureCapacity(int size) {
+		if (size <= capacity) {
+			return;
+		}
+		capacity = size;
+		growCount++;
+
+		distance = new double[size];
+		parent = new int[size];
+		marked = new boolean[size];
+		remaining = new int[size];
+		neighbourTargets = new int[size];
+		neighbourWeights = new double[size];
+		row = new double[size];
+
+		childStart = new int[size + 1];
+		childIdx = new int[size];
+		childFill = new int[size];
+		visited = new boolean[size];
+		stack = new Stack(size);
+		path = new int[size + 1];
+	}
+
+	/**
+	 * Gets the Prim buffers ready for a graph of size vertices: distances to
+	 * infinity and nothing marked
+	 * 
+	 * @param size
+	 */
+	public void resetMST(int size) {
+		ensureCapacity(size);
+		Arrays.fill(distance, 0, size, Double.POSITIVE_INFINITY);
+		Arrays.fill(marked, 0, size, false);
+	}
+
+	/**
+	 * An empty queue of the given type for a graph of size vertices. The queue
+	 * of the last call is reset and handed out again when the type is the
+	 * same and the buffers have not grown since
+	 * 
+	 * @param type
+	 * @param size
+	 * @return
+	 */
+	public IndexedMinQueue queue(QueueType type, int size) {
+		ensureCapacity(size);
+		if (pq == null || pqType != type || pqLimit != capacity) {
+			pq = type.create(capacity);
+			pqType = type;
+			pqLimit = capacity;
+		} else {
+			pq.reset();
+		}
+		return pq;
+	}
+
+	/**
+	 * Gets the buffers of the preorder walk ready for a tree of size vertices
+	 * 
+	 * @param size
+	 */
+	public void resetWalk(int size) {
+		ensureCapacity(size);
+		Arrays.fill(childStart, 0, size + 1, 0);
+		Arrays.fill(childFill, 0, size, 0);
+		Arrays.fill(visited, 0, size, false);
+		stack.clear();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getGrowCount() {
+		return growCount;
+	}
+}
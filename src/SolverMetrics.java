@@ -0,0 +1,239 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects cheap per stage measurements of a {@link PrimMST} run: wall time,
+ * bytes allocated by the running thread, plain counters (such as the heap
+ * operations of the {@link PriorityQueue}) and values such as the tour
+ * length. Each stage costs two clock reads and two allocation counter reads,
+ * so it can stay on under load. toJson gives a machine readable summary.
+ * 
+ * A metrics object is meant to be used by one thread, like the PrimMST that
+ * owns it.
+ */
+public class SolverMetrics {
+
+	/**
+	 * The allocation counter is a HotSpot extension. Null when the JVM does
+	 * not have it, allocated bytes are then reported as -1
+	 */
+	private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN = allocationBean();
+
+	private boolean enabled = true;
+
+	/**
+	 * Per stage: number of calls, total nanoseconds, total allocated bytes
+	 */
+	private Map<String, long[]> stages = new LinkedHashMap<>();
+	private Map<String, Long> counters = new LinkedHashMap<>();
+	private Map<String, Object> values = new LinkedHashMap<>();
+
+	private static com.sun.management.ThreadMXBean allocationBean() {
+		try {
+			ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+				if (sunBean.isThreadAllocatedMemorySupported()) {
+					sunBean.setThreadAllocatedMemoryEnabled(true);
+					return sunBean;
+				}
+			}
+		} catch (LinkageError | UnsupportedOperationException e) {
+			// Not a HotSpot JVM
+		}
+		return null;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Turns all recording off (or back on). When off every method returns
+	 * right away
+	 * 
+	 * @param enabled
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Clock reading to pass to record when the stage is over
+	 * 
+	 * @return
+	 */
+	public long startTime() {
+		return enabled ? System.nanoTime() : 0L;
+	}
+
+	/**
+	 * Allocation counter reading to pass to record when the stage is over
+	 * 
+	 * @return
+	 */
+	public long startBytes() {
+		return enabled ? allocatedBytes() : 0L;
+	}
+
+	private static long allocatedBytes() {
+		if (ALLOCATION_BEAN == null) {
+			return -1L;
+		}
+		return ALLOCATION_BEAN.getThreadAllocatedBytes(Thread.currentThread()
+				.getId());
+	}
+
+	/**
+	 * Adds one call of a stage that started at the given readings
+	 * 
+	 * @param stage
+	 * @param startTime
+	 * @param startBytes
+	 */
+	public void record(String stage, long startTime, long startBytes) {
+		if (!enabled) {
+			return;
+		}
+		long time = System.nanoTime() - startTime;
+		long bytes = startBytes < 0 ? -1L : allocatedBytes() - startBytes;
+
+		long[] totals = stages.get(stage);
+		if (totals == null) {
+			totals = new long[3];
+			stages.put(stage, totals);
+		}
+		totals[0]++;
+		totals[1] += time;
+		totals[2] = bytes < 0 ? -1L : totals[2] + bytes;
+	}
+
+	/**
+	 * Adds to a counter
+	 * 
+	 * @param name
+	 * @param delta
+	 */
+	public void count(String name, long delta) {
+		if (!enabled) {
+			return;
+		}
+		Long old = counters.get(name);
+		counters.put(name, old == null ? delta : old + delta);
+	}
+
+	/**
+	 * Sets a value (a number or a string), replacing the old one
+	 * 
+	 * @param name
+	 * @param value
+	 */
+	public void set(String name, Object value) {
+		if (enabled) {
+			values.put(name, value);
+		}
+	}
+
+	public long getCalls(String stage) {
+		long[] totals = stages.get(stage);
+		return totals == null ? 0L : totals[0];
+	}
+
+	public double getMillis(String stage) {
+		long[] totals = stages.get(stage);
+		return totals == null ? 0.0 : totals[1] / 1e6;
+	}
+
+	public long getAllocatedBytes(String stage) {
+		long[] totals = stages.get(stage);
+		return totals == null ? 0L : totals[2];
+	}
+
+	public long getCounter(String name) {
+		Long value = counters.get(name);
+		return value == null ? 0L : value;
+	}
+
+	public Object getValue(String name) {
+		return values.get(name);
+	}
+
+	/**
+	 * Forgets everything recorded so far
+	 */
+	public void reset() {
+		stages.clear();
+		counters.clear();
+		values.clear();
+	}
+
+	/**
+	 * The measurements as a JSON object with "stages", "counters" and
+	 * "values"
+	 * 
+	 * @return
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder("{\"stages\":{");
+		boolean first = true;
+		for (Map.Entry<String, long[]> stage : stages.entrySet()) {
+			long[] totals = stage.getValue();
+			if (!first) {
+				json.append(',');
+			}
+			first = false;
+			appendString(json, stage.getKey());
+			json.append(":{\"calls\":").append(totals[0])
+					.append(",\"wallMillis\":")
+					.append(String.format(Locale.ROOT, "%.3f", totals[1] / 1e6))
+					.append(",\"allocatedBytes\":").append(totals[2])
+					.append('}');
+		}
+
+		json.append("},\"counters\":{");
+		first = true;
+		for (Map.Entry<String, Long> counter : counters.entrySet()) {
+			if (!first) {
+				json.append(',');
+			}
+			first = false;
+			appendString(json, counter.getKey());
+			json.append(':').append(counter.getValue());
+		}
+
+		json.append("},\"values\":{");
+		first = true;
+		for (Map.Entry<String, Object> value : values.entrySet()) {
+			if (!first) {
+				json.append(',');
+			}
+			first = false;
+			appendString(json, value.getKey());
+			json.append(':');
+			if (value.getValue() instanceof Number) {
+				json.append(value.getValue());
+			} else {
+				appendString(json, String.valueOf(value.getValue()));
+			}
+		}
+		return json.append("}}").toString();
+	}
+
+	private static void appendString(StringBuilder json, String text) {
+		json.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+}
@@ -50,6 +50,13 @@ public class Stack {
 		return popped;
 	}
 
+	/**
+	 * Empties the stack so it can be used again
+	 */
+	public void clear() {
+		top = -1;
+	}
+
 	/**
 	 * Peek is useful for our pre-order walk of the tree. It gives the value of
 	 * the top of the stack without removing it
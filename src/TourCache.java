@@ -0,0 +1,437 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of solved tours (MST, tour and length), keyed
+ * by data set, rows and options (see key). With a directory every entry is
+ * also kept in a file there, so a new process starts warm. Thread safe.
+ */
+public class TourCache {
+
+	private static final int MAGIC = 0x54435348;
+	private static final int VERSION = 1;
+
+	/**
+	 * Rough bytes of an entry besides its arrays: the key string, the map
+	 * node and the entry object
+	 */
+	private static final int ENTRY_OVERHEAD = 128;
+
+	private final long maxBytes;
+	private final File directory;
+
+	/**
+	 * In access order, so the first entry is the least recently used
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(
+			16, 0.75f, true);
+	private long bytes = 0;
+
+	private long hits = 0;
+	private long diskHits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long diskErrors = 0;
+
+	/**
+	 * A solved tour
+	 */
+	public static class Entry {
+		private final int[] parent;
+		private final int[] tour;
+		private final double miles;
+
+		/**
+		 * Keeps copies of the arrays, so the caller may go on changing its own
+		 * 
+		 * @param parent
+		 *            the MST, parent[i] is the vertex i was reached from
+		 * @param tour
+		 *            closed tour over the vertices
+		 * @param miles
+		 *            length of the tour
+		 */
+		public Entry(int[] parent, int[] tour, double miles) {
+			this.parent = parent.clone();
+			this.tour = tour.clone();
+			this.miles = miles;
+		}
+
+		/**
+		 * A copy of the MST, the entry may be shared by many requests
+		 * 
+		 * @return
+		 */
+		public int[] getParent() {
+			return parent.clone();
+		}
+
+		/**
+		 * A copy of the tour
+		 * 
+		 * @return
+		 */
+		public int[] getTour() {
+			return tour.clone();
+		}
+
+		public double getMiles() {
+			return miles;
+		}
+
+		long getBytes(String key) {
+			return ENTRY_OVERHEAD + 2L * key.length() + 4L
+					* (parent.length + tour.length);
+		}
+	}
+
+	/**
+	 * A cache in memory only
+	 * 
+	 * @param maxBytes
+	 */
+	public TourCache(long maxBytes) {
+		this(maxBytes, null);
+	}
+
+	/**
+	 * A cache that also keeps every entry in the directory, which is created
+	 * if needed
+	 * 
+	 * @param maxBytes
+	 *            of the memory tier
+	 * @param directory
+	 *            null for none
+	 */
+	public TourCache(long maxBytes, File directory) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("Negative size " + maxBytes);
+		}
+		if (directory != null && !directory.isDirectory()
+				&& !directory.mkdirs()) {
+			throw new IllegalArgumentException("Can not create " + directory);
+		}
+		this.maxBytes = maxBytes;
+		this.directory = directory;
+	}
+
+	/**
+	 * The entry of the key, from memory or else from the directory. Null when
+	 * there is none
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public Entry get(String key) {
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				hits++;
+				return entry;
+			}
+		}
+
+		// The file is read without holding the lock
+		Entry entry = directory == null ? null : read(key);
+		synchronized (this) {
+			if (entry == null) {
+				misses++;
+				return null;
+			}
+			diskHits++;
+			store(key, entry);
+			return entry;
+		}
+	}
+
+	/**
+	 * Adds or replaces the entry of the key, in memory and in the directory
+	 * 
+	 * @param key
+	 * @param entry
+	 */
+	public void put(String key, Entry entry) {
+		synchronized (this) {
+			store(key, entry);
+		}
+		if (directory != null) {
+			write(key, entry);
+		}
+	}
+
+	/**
+	 * Puts the entry into memory and evicts from the least recently used end
+	 * until the size fits. Entries larger than the whole cache stay out
+	 * 
+	 * @param key
+	 * @param entry
+	 */
+	private void store(String key, Entry entry) {
+		Entry old = entries.remove(key);
+		if (old != null) {
+			bytes -= old.getBytes(key);
+		}
+		long size = entry.getBytes(key);
+		if (size > maxBytes) {
+			return;
+		}
+		entries.put(key, entry);
+		bytes += size;
+
+		Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet()
+				.iterator();
+		while (bytes > maxBytes) {
+			Map.Entry<String, Entry> victim = eldest.next();
+			bytes -= victim.getValue().getBytes(victim.getKey());
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Empties the memory tier. The files stay
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	private File file(String key) {
+		return new File(directory, digest(key.getBytes(StandardCharsets.UTF_8))
+				+ ".tour");
+	}
+
+	/**
+	 * Reads the file of the key. Null when there is none, or when it is
+	 * damaged or belongs to another key with the same digest
+	 * 
+	 * @param key
+	 * @return
+	 */
+	private Entry read(String key) {
+		File file = file(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION
+					|| !in.readUTF().equals(key)) {
+				return null;
+			}
+			int[] parent = new int[in.readInt()];
+			for (int i = 0; i < parent.length; i++) {
+				parent[i] = in.readInt();
+			}
+			int[] tour = new int[in.readInt()];
+			for (int i = 0; i < tour.length; i++) {
+				tour[i] = in.readInt();
+			}
+			return new Entry(parent, tour, in.readDouble());
+		} catch (IOException | NegativeArraySizeException e) {
+			synchronized (this) {
+				diskErrors++;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the entry to a temporary file and renames it, so a reader never
+	 * sees half a file
+	 * 
+	 * @param key
+	 * @param entry
+	 */
+	private void write(String key, Entry entry) {
+		File file = file(key);
+		File temp = null;
+		try {
+			temp = File.createTempFile("tour", ".tmp", directory);
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(key);
+				out.writeInt(entry.parent.length);
+				for (int value : entry.parent) {
+					out.writeInt(value);
+				}
+				out.writeInt(entry.tour.length);
+				for (int value : entry.tour) {
+					out.writeInt(value);
+				}
+				out.writeDouble(entry.miles);
+			}
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			synchronized (this) {
+				diskErrors++;
+			}
+			if (temp != null) {
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * The key of a request
+	 * 
+	 * @param fingerprint
+	 *            of the data set, see the fingerprint methods
+	 * @param rows
+	 *            data set rows of the vertices
+	 * @param options
+	 *            everything else that changes the tour
+	 * @return
+	 */
+	public static String key(String fingerprint, int[] rows, String options) {
+		boolean range = true;
+		for (int i = 1; i < rows.length && range; i++) {
+			range = rows[i] == rows[i - 1] + 1;
+		}
+		String rowPart;
+		if (rows.length == 0) {
+			rowPart = "none";
+		} else if (range) {
+			rowPart = rows[0] + "-" + rows[rows.length - 1];
+		} else {
+			byte[] data = new byte[4 * rows.length];
+			for (int i = 0; i < rows.length; i++) {
+				data[4 * i] = (byte) (rows[i] >>> 24);
+				data[4 * i + 1] = (byte) (rows[i] >>> 16);
+				data[4 * i + 2] = (byte) (rows[i] >>> 8);
+				data[4 * i + 3] = (byte) rows[i];
+			}
+			rowPart = rows.length + "@" + digest(data);
+		}
+		return fingerprint + "|" + rowPart + "|" + options;
+	}
+
+	/**
+	 * Fingerprint of a data file: its path, length and modification time. A
+	 * changed file gets a new fingerprint, so its old entries are never hit
+	 * 
+	 * @param dataFile
+	 * @return
+	 */
+	public static String fingerprint(String dataFile) {
+		File file = new File(dataFile).getAbsoluteFile();
+		return file.getPath() + ":" + file.length() + ":"
+				+ file.lastModified();
+	}
+
+	/**
+	 * Fingerprint of points that did not come from a file: a digest of the
+	 * coordinates
+	 * 
+	 * @param points
+	 * @return
+	 */
+	public static String fingerprint(PointSet points) {
+		byte[] data = new byte[16 * points.size()];
+		for (int i = 0; i < points.size(); i++) {
+			long x = Double.doubleToLongBits(points.getX(i));
+			long y = Double.doubleToLongBits(points.getY(i));
+			for (int b = 0; b < 8; b++) {
+				data[16 * i + b] = (byte) (x >>> (56 - 8 * b));
+				data[16 * i + 8 + b] = (byte) (y >>> (56 - 8 * b));
+			}
+		}
+		return "points:" + points.size() + ":" + digest(data);
+	}
+
+	/**
+	 * SHA-1 of the bytes in hex
+	 * 
+	 * @param data
+	 * @return
+	 */
+	private static String digest(byte[] data) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1").digest(data);
+			StringBuilder hex = new StringBuilder(2 * hash.length);
+			for (byte b : hash) {
+				hex.append(String.format("%02x", b & 0xff));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM has SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Hits answered from the directory, not counted in getHits
+	 * 
+	 * @return
+	 */
+	public synchronized long getDiskHits() {
+		return diskHits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Files that could not be read or written
+	 * 
+	 * @return
+	 */
+	public synchronized long getDiskErrors() {
+		return diskErrors;
+	}
+
+	/**
+	 * Estimated bytes held by the memory tier
+	 * 
+	 * @return
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d entries, %d bytes of %d, %d hits, %d disk "
+				+ "hits, %d misses, %d evictions", entries.size(), bytes,
+				maxBytes, hits, diskHits, misses, evictions);
+	}
+}
@@ -0,0 +1,354 @@
+/**
+ * Local search that shortens a tour made by {@link PrimMST}. It applies 2-opt
+ * moves (replace two edges by the two edges that reconnect the tour the other
+ * way) and Or-opt moves (move a run of up to three cities to another place in
+ * the tour, possibly reversed) until no move helps or the time is up.
+ * 
+ * To scale to large tours only moves that add an edge to one of the nearest
+ * neighbours of a city are tried, and a city is only looked at again after a
+ * move touched one of its edges ("don't look bits", kept as a queue of active
+ * cities).
+ */
+public class TourImprover {
+
+	/**
+	 * Length of the candidate neighbour list of every city
+	 */
+	private static final int NEIGHBOURS = 8;
+
+	/**
+	 * Longest run of cities an Or-opt move will move
+	 */
+	private static final int MAX_SEGMENT = 3;
+
+	/**
+	 * A move has to gain at least this much to be applied, so rounding errors
+	 * can not make the search go in circles
+	 */
+	private static final double EPSILON = 1e-9;
+
+	private PointSet points;
+	private int size;
+
+	/**
+	 * tour[i] is the i-th city, position[c] is where city c is in the tour
+	 */
+	private int[] tour;
+	private int[] position;
+
+	/**
+	 * Neighbours of city c are neighbours[c * NEIGHBOURS ...], closest first
+	 */
+	private int[] neighbours;
+	private int[] neighbourCount;
+
+	/**
+	 * Circular queue of cities whose don't look bit is off
+	 */
+	private int[] queue;
+	private int queueHead;
+	private int queueSize;
+	private boolean[] queued;
+
+	private int twoOptMoves = 0;
+	private int orOptMoves = 0;
+
+	public TourImprover(PointSet points) {
+		this.points = points;
+		this.size = points.size();
+	}
+
+	/**
+	 * Improves a closed tour (first city repeated at the end, every city once)
+	 * and returns the new tour, starting and ending at the same city as the
+	 * input. Tours that do not visit every point are returned unchanged
+	 * 
+	 * @param cycle
+	 * @param timeBudgetMillis
+	 *            stop after this many milliseconds, 0 or less for no limit
+	 * @return
+	 */
+	public int[] improve(int[] cycle, long timeBudgetMillis) {
+		twoOptMoves = 0;
+		orOptMoves = 0;
+		if (cycle.length - 1 != size || size < 8) {
+			return cycle.clone();
+		}
+
+		long deadline = timeBudgetMillis > 0 ? System.nanoTime()
+				+ timeBudgetMillis * 1000000L : Long.MAX_VALUE;
+
+		tour = new int[size];
+		position = new int[size];
+		for (int i = 0; i < size; i++) {
+			tour[i] = cycle[i];
+			position[cycle[i]] = i;
+		}
+		buildNeighbours();
+
+		queue = new int[size];
+		queued = new boolean[size];
+		queueHead = 0;
+		queueSize = 0;
+		for (int i = 0; i < size; i++) {
+			push(tour[i]);
+		}
+
+		int steps = 0;
+		while (queueSize > 0) {
+			if ((++steps & 63) == 0 && System.nanoTime() > deadline) {
+				break;
+			}
+			int city = pop();
+			if (tryTwoOpt(city) || tryOrOpt(city)) {
+				push(city);
+			}
+		}
+
+		// Rotate back so the tour starts where the input did
+		int[] result = new int[size + 1];
+		int start = position[cycle[0]];
+		for (int i = 0; i < size; i++) {
+			result[i] = tour[(start + i) % size];
+		}
+		result[size] = result[0];
+		return result;
+	}
+
+	private void buildNeighbours() {
+		int k = Math.min(NEIGHBOURS, size - 1);
+		neighbours = new int[size * NEIGHBOURS];
+		neighbourCount = new int[size];
+
+		KdTree tree = new KdTree(points);
+		int[] found = new int[k];
+		double[] foundDistance = new double[k];
+		for (int c = 0; c < size; c++) {
+			int count = tree.nearest(c, k, found, foundDistance);
+			System.arraycopy(found, 0, neighbours, c * NEIGHBOURS, count);
+			neighbourCount[c] = count;
+		}
+	}
+
+	private void push(int city) {
+		if (!queued[city]) {
+			queued[city] = true;
+			queue[(queueHead + queueSize) % size] = city;
+			queueSize++;
+		}
+	}
+
+	private int pop() {
+		int city = queue[queueHead];
+		queueHead = (queueHead + 1) % size;
+		queueSize--;
+		queued[city] = false;
+		return city;
+	}
+
+	private int next(int city) {
+		int i = position[city] + 1;
+		return tour[i == size ? 0 : i];
+	}
+
+	private int previous(int city) {
+		int i = position[city] - 1;
+		return tour[i < 0 ? size - 1 : i];
+	}
+
+	private double distance(int a, int b) {
+		return points.distance(a, b);
+	}
+
+	/**
+	 * Looks for a 2-opt move that adds an edge from city a to one of its
+	 * neighbours, on both sides of a
+	 * 
+	 * @param a
+	 * @return true if a move was applied
+	 */
+	private boolean tryTwoOpt(int a) {
+		for (int side = 0; side < 2; side++) {
+			int b = side == 0 ? next(a) : previous(a);
+			double removed = distance(a, b);
+
+			for (int k = 0; k < neighbourCount[a]; k++) {
+				int c = neighbours[a * NEIGHBOURS + k];
+				double added = distance(a, c);
+				// Neighbours are sorted, nothing further on can gain
+				if (added >= removed - EPSILON) {
+					break;
+				}
+				int d = side == 0 ? next(c) : previous(c);
+				if (c == b || d == a) {
+					continue;
+				}
+
+				double delta = added + distance(b, d) - removed
+						- distance(c, d);
+				if (delta < -EPSILON) {
+					if (side == 0) {
+						makeTwoOptMove(a, b, c, d);
+					} else {
+						makeTwoOptMove(b, a, d, c);
+					}
+					twoOptMoves++;
+					push(a);
+					push(b);
+					push(c);
+					push(d);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Looks for an Or-opt move of a run of cities starting at city s1 to a
+	 * place next to a neighbour of either end of the run
+	 * 
+	 * @param s1
+	 * @return true if a move was applied
+	 */
+	private boolean tryOrOpt(int s1) {
+		for (int length = 1; length <= MAX_SEGMENT; length++) {
+			int s2 = tour[(position[s1] + length - 1) % size];
+			int p = previous(s1);
+			int n = next(s2);
+
+			double removeGain = distance(p, s1) + distance(s2, n)
+					- distance(p, n);
+			if (removeGain <= EPSILON) {
+				continue;
+			}
+
+			for (int end = 0; end < 2; end++) {
+				int from = end == 0 ? s1 : s2;
+				for (int k = 0; k < neighbourCount[from]; k++) {
+					int c = neighbours[from * NEIGHBOURS + k];
+					if (distance(from, c) >= removeGain) {
+						break;
+					}
+					if (inSegment(c, s1, length)) {
+						continue;
+					}
+
+					// Try the edges on both sides of c as (u, v) with v after u
+					for (int side = 0; side < 2; side++) {
+						int u = side == 0 ? c : previous(c);
+						int v = side == 0 ? next(c) : c;
+						if (inSegment(u, s1, length) || inSegment(v, s1, length)
+								|| v == p) {
+							continue;
+						}
+
+						double edge = distance(u, v);
+						double forward = distance(u, s1) + distance(s2, v)
+								- edge;
+						double reversed = distance(u, s2) + distance(s1, v)
+								- edge;
+						double delta = Math.min(forward, reversed) - removeGain;
+
+						if (delta < -EPSILON) {
+							makeOrOptMove(s1, s2, p, n, u, v, forward <= reversed);
+							orOptMoves++;
+							push(p);
+							push(n);
+							push(s1);
+							push(s2);
+							push(u);
+							push(v);
+							return true;
+						}
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean inSegment(int city, int s1, int length) {
+		int offset = position[city] - position[s1];
+		if (offset < 0) {
+			offset += size;
+		}
+		return offset < length;
+	}
+
+	/**
+	 * Moves the run s1..s2 (p before it, n after it) between u and v = next(u)
+	 * with three 2-opt moves. After each move the tour may be walked the other
+	 * way round, so the direction is checked before every step
+	 */
+	private void makeOrOptMove(int s1, int s2, int p, int n, int u, int v,
+			boolean keepDirection) {
+		// p [u ... n s2 ... s1] v
+		makeTwoOptMove(p, s1, u, v);
+
+		// p [n ... u] s2 ... s1 v
+		if (next(p) == u) {
+			makeTwoOptMove(p, u, n, s2);
+		} else {
+			makeTwoOptMove(s2, n, u, p);
+		}
+
+		// u [s1 ... s2] v
+		if (keepDirection) {
+			if (next(u) == s2) {
+				makeTwoOptMove(u, s2, s1, v);
+			} else {
+				makeTwoOptMove(v, s1, s2, u);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the edges (a, b) and (c, d), where b follows a and d follows c,
+	 * with (a, c) and (b, d) by reversing the path b..c. If that path is more
+	 * than half the tour the rest (d..a) is reversed instead, which gives the
+	 * same tour walked the other way
+	 */
+	private void makeTwoOptMove(int a, int b, int c, int d) {
+		int from = position[b];
+		int length = position[c] - from;
+		if (length < 0) {
+			length += size;
+		}
+		length++;
+
+		if (2 * length > size) {
+			from = position[d];
+			length = size - length;
+		}
+		reverse(from, length);
+	}
+
+	/**
+	 * Reverses the length cities starting at tour position from, wrapping
+	 * around the end of the array
+	 */
+	private void reverse(int from, int length) {
+		int i = from;
+		int j = (from + length - 1) % size;
+		for (int swaps = length / 2; swaps > 0; swaps--) {
+			int cityI = tour[i];
+			int cityJ = tour[j];
+			tour[i] = cityJ;
+			position[cityJ] = i;
+			tour[j] = cityI;
+			position[cityI] = j;
+
+			i = (i + 1 == size) ? 0 : i + 1;
+			j = (j == 0) ? size - 1 : j - 1;
+		}
+	}
+
+	public int getTwoOptMoves() {
+		return twoOptMoves;
+	}
+
+	public int getOrOptMoves() {
+		return orOptMoves;
+	}
+}
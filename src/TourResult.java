@@ -0,0 +1,109 @@
+/**
+ * The tour found for one request of a {@link BatchSolver}
+ */
+public class TourResult {
+
+	private int[] rows;
+	private int[] parent;
+	private int[] tour;
+	private double miles;
+	private long nanos;
+	private boolean cached;
+
+	/**
+	 * @param rows
+	 *            data file row of every vertex of the tour
+	 * @param tour
+	 *            closed tour over the vertices 0 .. rows.length - 1
+	 * @param miles
+	 *            length of the tour
+	 * @param nanos
+	 *            time it took to solve
+	 */
+	public TourResult(int[] rows, int[] tour, double miles, long nanos) {
+		this(rows, null, tour, miles, nanos, false);
+	}
+
+	/**
+	 * @param rows
+	 * @param parent
+	 *            the MST the tour was walked from, parent[i] is the vertex i
+	 *            was reached from
+	 * @param tour
+	 * @param miles
+	 * @param nanos
+	 * @param cached
+	 *            whether it came from a {@link TourCache}
+	 */
+	public TourResult(int[] rows, int[] parent, int[] tour, double miles,
+			long nanos, boolean cached) {
+		this.rows = rows;
+		this.parent = parent;
+		this.tour = tour;
+		this.miles = miles;
+		this.nanos = nanos;
+		this.cached = cached;
+	}
+
+	/**
+	 * Data file row of every vertex, vertex i is row getRows()[i]
+	 * 
+	 * @return
+	 */
+	public int[] getRows() {
+		return rows;
+	}
+
+	/**
+	 * The MST over the vertices, null if it was not kept
+	 * 
+	 * @return
+	 */
+	public int[] getParent() {
+		return parent;
+	}
+
+	/**
+	 * The closed tour, as vertex numbers
+	 * 
+	 * @return
+	 */
+	public int[] getTour() {
+		return tour;
+	}
+
+	/**
+	 * The closed tour as data file rows
+	 * 
+	 * @return
+	 */
+	public int[] getTourRows() {
+		int[] tourRows = new int[tour.length];
+		for (int i = 0; i < tour.length; i++) {
+			tourRows[i] = rows[tour[i]];
+		}
+		return tourRows;
+	}
+
+	public double getMiles() {
+		return miles;
+	}
+
+	public double getMillis() {
+		return nanos / 1e6;
+	}
+
+	public boolean isCached() {
+		return cached;
+	}
+
+	@Override
+	public String toString() {
+		String first = rows.length == 0 ? "-" : String.valueOf(rows[0]);
+		String last = rows.length == 0 ? "-" : String
+				.valueOf(rows[rows.length - 1]);
+		return String.format("rows %s..%s (%d points): %.2f miles in %.1f ms%s",
+				first, last, rows.length, miles, getMillis(),
+				cached ? " (cached)" : "");
+	}
+}
@@ -0,0 +1,37 @@
+/**
+ * An undirected weighted graph over the vertices 0 .. getSize() - 1, as the
+ * MST code sees it. {@link Graph} keeps it as a dense matrix, {@link KnnGraph}
+ * as compressed adjacency lists of the nearest neighbours
+ */
+public interface WeightedGraph {
+
+	int getSize();
+
+	/**
+	 * Number of undirected edges. A long since a complete graph over more than
+	 * 65536 vertices has more than Integer.MAX_VALUE of them
+	 * 
+	 * @return
+	 */
+	long getEdgeCount();
+
+	/**
+	 * Weight of the edge i - j, infinity when there is none
+	 * 
+	 * @param i
+	 * @param j
+	 * @return
+	 */
+	double getWeight(int i, int j);
+
+	/**
+	 * Copies the neighbours of a vertex and the weights of the edges to them
+	 * into the given arrays, which must have room for getSize() - 1 entries
+	 * 
+	 * @param vertex
+	 * @param targets
+	 * @param weights
+	 * @return number of neighbours
+	 */
+	int getNeighbours(int vertex, int[] targets, double[] weights);
+}